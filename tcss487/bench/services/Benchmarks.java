@@ -0,0 +1,413 @@
+package services;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.Supplier;
+
+import services.kmac.KECCAK;
+import services.kmac.Kmac256;
+import services.kmac.Xor;
+
+/**
+ * Benchmarks for the Keccak core, KMAC, symm, auth and the curve arithmetic.
+ * Every case is run for each message size, output length and thread count it
+ * applies to, and reports throughput, latency, bytes allocated per operation
+ * and the collections that happened while it ran.
+ *
+ * usage: java services.Benchmarks [--filter name-prefix] [--sizes 16,1024,...]
+ * [--outlens 64,...] [--threads 1,2,...] [--warmup ms] [--time ms]
+ * [--iterations n] [--out results.json]
+ */
+public class Benchmarks {
+
+    // cases that need the whole message (and its output) as arrays stop here
+    private static final long IN_MEMORY_LIMIT = 64L << 20;
+
+    private static final int CHUNK_SIZE = 1 << 20;
+
+    private static final com.sun.management.ThreadMXBean THREADS = (com.sun.management.ThreadMXBean) ManagementFactory
+            .getThreadMXBean();
+
+    /**
+     * One thread's instance of a benchmarked operation
+     */
+    interface Op {
+        void run() throws Exception;
+    }
+
+    private static class Case {
+        final String name;
+        final long size;
+        final int outLen;
+        final Supplier<Op> factory;
+
+        Case(String name, long size, int outLen, Supplier<Op> factory) {
+            this.name = name;
+            this.size = size;
+            this.outLen = outLen;
+            this.factory = factory;
+        }
+    }
+
+    private static class Result {
+        Case c;
+        int threads;
+        long ops;
+        double seconds;
+        long allocated;
+        long gcCount;
+        long gcMillis;
+
+        double nsPerOp() {
+            return seconds * 1e9 * threads / ops;
+        }
+
+        double opsPerSec() {
+            return ops / seconds;
+        }
+
+        double mbPerSec() {
+            return c.size * (double) ops / seconds / 1e6;
+        }
+
+        double bytesPerOp() {
+            return allocated / (double) ops;
+        }
+    }
+
+    private String filter = "";
+    private long[] sizes = { 16, 1024, 64 << 10, 1 << 20, 16 << 20 };
+    private int[] outLens = { 64 };
+    private int[] threads = { 1 };
+    private long warmupMillis = 1000;
+    private long timeMillis = 1000;
+    private int iterations = 3;
+    private Path out;
+
+    public static void main(String[] args) throws Exception {
+        Benchmarks b = new Benchmarks();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--filter":
+                    b.filter = args[++i];
+                    break;
+                case "--sizes":
+                    b.sizes = parseLongs(args[++i]);
+                    break;
+                case "--outlens":
+                    b.outLens = toInts(parseLongs(args[++i]));
+                    break;
+                case "--threads":
+                    b.threads = toInts(parseLongs(args[++i]));
+                    break;
+                case "--warmup":
+                    b.warmupMillis = Long.parseLong(args[++i]);
+                    break;
+                case "--time":
+                    b.timeMillis = Long.parseLong(args[++i]);
+                    break;
+                case "--iterations":
+                    b.iterations = Integer.parseInt(args[++i]);
+                    break;
+                case "--out":
+                    b.out = Path.of(args[++i]);
+                    break;
+                default:
+                    System.out.println("unknown option " + args[i]);
+                    return;
+            }
+        }
+        b.run();
+    }
+
+    private void run() throws Exception {
+        List<Result> results = new ArrayList<>();
+        System.out.printf("%-28s %12s %7s %7s %14s %12s %12s %12s %6s%n", "benchmark", "size", "outlen", "threads",
+                "ns/op", "ops/s", "MB/s", "B/op", "gc");
+        for (Case c : cases()) {
+            if (!c.name.startsWith(filter))
+                continue;
+            for (int t : threads) {
+                Result r = measure(c, t);
+                results.add(r);
+                System.out.printf(Locale.ROOT, "%-28s %12d %7d %7d %14.1f %12.1f %12.1f %12.1f %6d%n", c.name,
+                        c.size, c.outLen, t, r.nsPerOp(), r.opsPerSec(), r.mbPerSec(), r.bytesPerOp(), r.gcCount);
+            }
+        }
+        if (out != null) {
+            writeJson(results, out);
+            System.out.println("\nwrote " + out);
+        }
+    }
+
+    private List<Case> cases() {
+        List<Case> cases = new ArrayList<>();
+        Random rand = new Random(487);
+        byte[] key = "benchmark key".getBytes();
+        byte[] pw = "benchmark passphrase".getBytes();
+        byte[] S = "D".getBytes();
+
+        for (long size : sizes) {
+            boolean inMemory = size <= IN_MEMORY_LIMIT;
+            byte[] m = inMemory ? random(rand, (int) size) : null;
+
+            for (int outLen : outLens) {
+                if (inMemory) {
+                    cases.add(new Case("keccak.KMACXOF256", size, outLen,
+                            () -> () -> KECCAK.KMACXOF256(key, m, outLen * 8, S)));
+                    cases.add(new Case("keccak.kmacxof256", size, outLen, () -> {
+                        byte[] tag = new byte[outLen];
+                        return () -> KECCAK.kmacxof256(key, m, 0, m.length, S, tag, 0, outLen);
+                    }));
+                }
+                cases.add(new Case("keccak.stream", size, outLen, () -> {
+                    byte[] chunk = new byte[CHUNK_SIZE];
+                    byte[] tag = new byte[outLen];
+                    return () -> {
+                        Kmac256 k = new Kmac256(key, S);
+                        for (long left = size; left > 0; left -= CHUNK_SIZE)
+                            k.update(chunk, 0, (int) Math.min(CHUNK_SIZE, left));
+                        k.squeeze(tag, 0, outLen);
+                    };
+                }));
+            }
+
+            if (inMemory)
+                cases.add(new Case("auth.computeAuthTag", size, 64, () -> {
+                    AuthenticationTag auth = new AuthenticationTag();
+                    return () -> auth.computeAuthTag(m, pw);
+                }));
+            cases.add(new Case("symm.encrypt", size, 0, () -> {
+                SymmetricCryptogram symm = new SymmetricCryptogram();
+                return () -> symm.encrypt(new ZeroChannel(size), new DiscardChannel(), pw);
+            }));
+            // the tag of a zero cryptogram never matches, but all the work up to
+            // comparing it is the same
+            cases.add(new Case("symm.decrypt", size, 0, () -> {
+                SymmetricCryptogram symm = new SymmetricCryptogram();
+                return () -> symm.decrypt(new ZeroChannel(size + 128), new DiscardChannel(), pw);
+            }));
+        }
+
+        for (long size : sizes) {
+            if (size > IN_MEMORY_LIMIT)
+                continue;
+            byte[] ks = random(rand, (int) size);
+            cases.add(new Case("xor." + Xor.kernel(), size, 0, () -> {
+                byte[] buf = new byte[(int) size];
+                return () -> Xor.xor(buf, 0, ks, 0, buf.length);
+            }));
+        }
+
+        BigInteger a = new BigInteger(521, rand).mod(Fp521.P), b = new BigInteger(521, rand).mod(Fp521.P);
+        cases.add(new Case("fp.mul", 0, 0, () -> {
+            Fp521 x = new Fp521(a), y = new Fp521(b);
+            return () -> x.mul(x, y);
+        }));
+        cases.add(new Case("fp.mul.biginteger", 0, 0, () -> () -> a.multiply(b).mod(Fp521.P)));
+
+        BigInteger s = new BigInteger(512, rand).shiftLeft(2);
+        BigInteger t = new BigInteger(512, rand);
+        Point P = EllipticCurve.G.multiply(new BigInteger(512, rand));
+        Point Q = EllipticCurve.G.multiply(new BigInteger(512, rand));
+        cases.add(new Case("ec.multiply", 0, 0, () -> () -> P.multiply(s)));
+        cases.add(new Case("ec.multiplyConstantTime", 0, 0, () -> () -> P.multiplyConstantTime(s)));
+        cases.add(new Case("ec.multiplyG", 0, 0, () -> () -> EllipticCurve.G.multiply(s)));
+        cases.add(new Case("ec.multiplyAdd", 0, 0, () -> () -> Point.multiplyAdd(s, EllipticCurve.G, t, Q)));
+        cases.add(new Case("ec.multiplyAddExact", 0, 0, () -> () -> Point.multiplyAddExact(s, EllipticCurve.G, t, Q)));
+        cases.add(new Case("ec.add", 0, 0, () -> () -> P.add(Q)));
+        return cases;
+    }
+
+    private Result measure(Case c, int threadCount) throws Exception {
+        Result r = new Result();
+        r.c = c;
+        r.threads = threadCount;
+
+        // warmup, then keep the best iteration
+        run(c, threadCount, warmupMillis, new Result());
+        for (int i = 0; i < iterations; i++) {
+            Result it = new Result();
+            it.c = c;
+            it.threads = threadCount;
+            long gcCount = gcCount(), gcMillis = gcMillis();
+            run(c, threadCount, timeMillis, it);
+            it.gcCount = gcCount() - gcCount;
+            it.gcMillis = gcMillis() - gcMillis;
+            if (r.ops == 0 || it.opsPerSec() > r.opsPerSec())
+                r = it;
+        }
+        return r;
+    }
+
+    private static void run(Case c, int threadCount, long millis, Result r) throws Exception {
+        CountDownLatch ready = new CountDownLatch(threadCount);
+        CountDownLatch start = new CountDownLatch(1);
+        long[] ops = new long[threadCount];
+        long[] allocated = new long[threadCount];
+        Exception[] failure = new Exception[1];
+        Thread[] workers = new Thread[threadCount];
+
+        for (int t = 0; t < threadCount; t++) {
+            final int id = t;
+            workers[t] = new Thread(() -> {
+                try {
+                    Op op = c.factory.get();
+                    op.run();
+                    ready.countDown();
+                    start.await();
+
+                    long tid = Thread.currentThread().getId();
+                    long before = THREADS.getThreadAllocatedBytes(tid);
+                    long deadline = System.nanoTime() + millis * 1_000_000L;
+                    long n = 0;
+                    do {
+                        op.run();
+                        n++;
+                    } while (System.nanoTime() < deadline);
+                    allocated[id] = THREADS.getThreadAllocatedBytes(tid) - before;
+                    ops[id] = n;
+                } catch (Exception e) {
+                    failure[0] = e;
+                    ready.countDown();
+                }
+            });
+            workers[t].start();
+        }
+
+        ready.await();
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread w : workers)
+            w.join();
+        r.seconds = (System.nanoTime() - begin) / 1e9;
+        if (failure[0] != null)
+            throw failure[0];
+
+        for (int t = 0; t < threadCount; t++) {
+            r.ops += ops[t];
+            r.allocated += allocated[t];
+        }
+    }
+
+    private static long gcCount() {
+        long n = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+            n += Math.max(0, gc.getCollectionCount());
+        return n;
+    }
+
+    private static long gcMillis() {
+        long n = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+            n += Math.max(0, gc.getCollectionTime());
+        return n;
+    }
+
+    private static void writeJson(List<Result> results, Path file) throws IOException {
+        try (PrintWriter w = new PrintWriter(Files.newBufferedWriter(file))) {
+            w.println("{");
+            w.printf("  \"java\": \"%s\",%n", System.getProperty("java.vm.version"));
+            w.printf("  \"cpus\": %d,%n", Runtime.getRuntime().availableProcessors());
+            w.println("  \"results\": [");
+            for (int i = 0; i < results.size(); i++) {
+                Result r = results.get(i);
+                w.printf(Locale.ROOT,
+                        "    {\"benchmark\": \"%s\", \"size\": %d, \"outlen\": %d, \"threads\": %d, "
+                                + "\"nsPerOp\": %.1f, \"opsPerSec\": %.1f, \"mbPerSec\": %.1f, "
+                                + "\"allocBytesPerOp\": %.1f, \"gcCount\": %d, \"gcMillis\": %d}%s%n",
+                        r.c.name, r.c.size, r.c.outLen, r.threads, r.nsPerOp(), r.opsPerSec(), r.mbPerSec(),
+                        r.bytesPerOp(), r.gcCount, r.gcMillis, i + 1 < results.size() ? "," : "");
+            }
+            w.println("  ]");
+            w.println("}");
+        }
+    }
+
+    private static byte[] random(Random rand, int size) {
+        byte[] b = new byte[size];
+        rand.nextBytes(b);
+        return b;
+    }
+
+    private static long[] parseLongs(String list) {
+        String[] parts = list.split(",");
+        long[] values = new long[parts.length];
+        for (int i = 0; i < parts.length; i++)
+            values[i] = Long.parseLong(parts[i].trim());
+        return values;
+    }
+
+    private static int[] toInts(long[] values) {
+        int[] ints = new int[values.length];
+        for (int i = 0; i < values.length; i++)
+            ints[i] = (int) values[i];
+        return ints;
+    }
+
+    /**
+     * Yields the given number of zero bytes without holding them in memory
+     */
+    private static class ZeroChannel implements ReadableByteChannel {
+        private long left;
+
+        ZeroChannel(long size) {
+            left = size;
+        }
+
+        public int read(ByteBuffer dst) {
+            if (left == 0)
+                return -1;
+            int n = (int) Math.min(dst.remaining(), left);
+            if (dst.hasArray()) {
+                Arrays.fill(dst.array(), dst.arrayOffset() + dst.position(), dst.arrayOffset() + dst.position() + n,
+                        (byte) 0);
+                dst.position(dst.position() + n);
+            } else {
+                for (int i = 0; i < n; i++)
+                    dst.put((byte) 0);
+            }
+            left -= n;
+            return n;
+        }
+
+        public boolean isOpen() {
+            return true;
+        }
+
+        public void close() {
+        }
+    }
+
+    /**
+     * Accepts and drops everything written to it
+     */
+    private static class DiscardChannel implements WritableByteChannel {
+        public int write(ByteBuffer src) {
+            int n = src.remaining();
+            src.position(src.limit());
+            return n;
+        }
+
+        public boolean isOpen() {
+            return true;
+        }
+
+        public void close() {
+        }
+    }
+}
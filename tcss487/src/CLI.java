@@ -1,7 +1,19 @@
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Scanner;
 
 import services.AuthenticationTag;
@@ -9,11 +21,14 @@ import services.IService;
 import services.SymmetricCryptogram;
 import services.EllipticCurve;
 import services.kmac.KMAC;
+import services.metrics.Stats;
 
 public class CLI {
 
     private static HashMap<String, IService> commands = new HashMap<String, IService>();
 
+    private static final int STDOUT_BUFFER_SIZE = 1 << 16;
+
     public CLI() {
         buildCommands();
     }
@@ -22,22 +37,14 @@ public class CLI {
         System.out.println("Type \"help\" for more information or \"exit\" to exit the program");
         Scanner scan = new Scanner(System.in);
         while (true) {
-            String[] input;
             System.out.print(">>> ");
             try {
-                input = scan.nextLine().trim().split(" ");
-                if (input.length == 0)
-                    continue;
-
-                if (input[0].equals("exit")) {
+                String[] input = tokenize(scan.nextLine());
+                if (input.length > 0 && input[0].equals("exit")) {
                     break;
-                } else if (input[0].equals("help")) {
-                    help();
-                } else if (commands.containsKey(input[0])) {
-                    commands.get(input[0]).parse(input);
-                } else {
-                    invalidCode(input[0]);
                 }
+                // stdin holds the prompt's input, so "-" is not allowed here
+                runCommand(input);
             } catch (Exception e) {
                 break;
             }
@@ -46,11 +53,134 @@ public class CLI {
         scan.close();
     }
 
+    /**
+     * Run one command given as arguments, e.g. "java Hash kmac -", with "-"
+     * standing for stdin and stdout
+     *
+     * @return the process exit status: 1 if the command failed or was invalid
+     */
+    public int runOnce(String[] input) {
+        return run(input);
+    }
+
+    /**
+     * Run every line of a script in this JVM, skipping blank lines and lines
+     * starting with '#', until the end or an "exit" line
+     *
+     * @return the process exit status: 1 if any command failed or was invalid
+     */
+    public int runScript(Path script) throws IOException {
+        try (BufferedReader in = Files.newBufferedReader(script)) {
+            boolean ok = true;
+            String line;
+            while ((line = in.readLine()) != null) {
+                String[] input = tokenize(line);
+                if (input.length == 0 || input[0].startsWith("#")) {
+                    continue;
+                }
+                if (input[0].equals("exit")) {
+                    break;
+                }
+                ok &= run(input) == 0;
+            }
+            return ok ? 0 : 1;
+        }
+    }
+
+    // a command from the arguments or a script, where stdin is free for "-"
+    private int run(String[] cmds) {
+        if (commands.containsKey(cmds[0]) && commands.get(cmds[0]).isStream(cmds)) {
+            return runStream(cmds) ? 0 : 1;
+        }
+        return runCommand(cmds) ? 0 : 1;
+    }
+
+    // input from stdin and result to stdout, both through channels; stdout is
+    // buffered so small writes (e.g. per chunk of keystream) don't each make a
+    // system call
+    private boolean runStream(String[] cmds) {
+        OutputStream stdout = new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), STDOUT_BUFFER_SIZE);
+        WritableByteChannel out = Channels.newChannel(stdout);
+        ReadableByteChannel in = new FileInputStream(FileDescriptor.in).getChannel();
+        try {
+            try {
+                return commands.get(cmds[0]).parseStream(cmds, in, out);
+            } finally {
+                stdout.flush();
+            }
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * @return false if the command is unknown, invalid or failed
+     */
+    private boolean runCommand(String[] input) {
+        if (input.length == 0 || input[0].equals("exit")) {
+            return true;
+        }
+
+        if (input[0].equals("help")) {
+            help();
+            return true;
+        } else if (commands.containsKey(input[0])) {
+            if (commands.get(input[0]).isStream(input)) {
+                System.out.println("\n'-' (stdin/stdout) only works with \"java Hash " + input[0]
+                        + " ...\" or --script\n");
+                return false;
+            }
+            return commands.get(input[0]).parse(input);
+        }
+        invalidCode(input[0]);
+        return false;
+    }
+
+    /**
+     * Split a command line on whitespace. Single or double quotes group a path
+     * with spaces into one argument and are dropped; backslashes are kept as
+     * they are, for Windows paths.
+     */
+    public static String[] tokenize(String line) {
+        List<String> tokens = new ArrayList<>();
+        StringBuilder token = new StringBuilder();
+        boolean inToken = false;
+        char quote = 0;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                } else {
+                    token.append(c);
+                }
+            } else if (c == '"' || c == '\'') {
+                quote = c;
+                inToken = true;
+            } else if (Character.isWhitespace(c)) {
+                if (inToken) {
+                    tokens.add(token.toString());
+                    token.setLength(0);
+                    inToken = false;
+                }
+            } else {
+                token.append(c);
+                inToken = true;
+            }
+        }
+        if (inToken) {
+            tokens.add(token.toString());
+        }
+        return tokens.toArray(new String[0]);
+    }
+
     private void buildCommands() {
         commands.put("kmac", new KMAC());
         commands.put("auth", new AuthenticationTag());
         commands.put("symm", new SymmetricCryptogram());
         commands.put("ec", new EllipticCurve());
+        commands.put("stats", new Stats());
     }
 
     private static String getCommands() {
@@ -1,9 +1,41 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import services.CryptoServer;
 
 public class Hash {
 
     public static void main(String[] args) {
+        // java Hash serve [options] -> socket server instead of the interactive prompt
+        if (args.length > 0 && args[0].equals("serve")) {
+            CryptoServer.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
         CLI app = new CLI();
-        app.runApplication();
+        if (args.length == 0) {
+            app.runApplication();
+            return;
+        }
+
+        // java Hash --script [file] -> every command of the file in this JVM
+        // java Hash [command] ... -> that command only, "-" meaning stdin/stdout
+        int status;
+        if (args[0].equals("--script")) {
+            if (args.length != 2) {
+                System.err.println("usage: java Hash --script [file]");
+                System.exit(2);
+            }
+            try {
+                status = app.runScript(Path.of(args[1]));
+            } catch (IOException e) {
+                System.err.println("Unable to read script: " + e.getMessage());
+                status = 2;
+            }
+        } else {
+            status = app.runOnce(args);
+        }
+        System.exit(status);
     }
 
 }
\ No newline at end of file
@@ -2,10 +2,18 @@ package services;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 
+import services.events.AuthTagEvent;
 import services.kmac.KECCAK;
 import services.kmac.KMAC;
+import services.kmac.Kmac256;
+import services.kmac.ParallelHash256;
+import services.metrics.Metrics;
 
 /**
  * Authentication tag services.
@@ -16,29 +24,34 @@ public class AuthenticationTag implements IService {
     private final String name = "auth";
     private final String service = "Computes an authentication tag (MAC) of a given file under a given passphrase.";
 
-    public void parse(String[] cmds) {
+    public boolean parse(String[] cmds) {
+        if (cmds.length >= 4 && cmds[1].equals("-r")) {
+            return executeRecursive(cmds);
+        }
+        if (cmds.length == 4 && cmds[1].equals("-p")) {
+            return executeParallel(cmds);
+        }
         if (cmds.length != 3) {
             help();
-            return;
+            return false;
         }
-        execute(cmds);
+        return execute(cmds);
     }
 
-    public void execute(String[] cmds) {
+    public boolean execute(String[] cmds) {
         try {
             final String GREEN = "\033[0;32m";
             final String CYAN = "\033[0;36m";
             final String RESET = "\033[0m";
 
-            // get file to create tag for and convert to bytes
-            File file = new File(cmds[1]);
-            byte[] m = Files.readAllBytes(file.toPath());
-
             // get passphrase and convert to
             byte[] pw = cmds[2].getBytes();
 
-            // compute tag and write to dest
-            byte[] tag = computeAuthTag(m, pw);
+            // compute tag over the file, streamed rather than read into memory
+            byte[] tag;
+            try (FileChannel in = FileChannel.open(new File(cmds[1]).toPath(), StandardOpenOption.READ)) {
+                tag = computeAuthTag(in, pw);
+            }
 
             // get dest file location and write data to it
             String dest = getDefaultDestination(cmds[1], "authtag");
@@ -49,11 +62,80 @@ public class AuthenticationTag implements IService {
                     "\nSuccessfully created auth tag!\n " + CYAN + "--- src:  " + cmds[1].replace("\\", "/") + GREEN
                             + "\n --- dest: "
                             + dest + RESET);
+            return true;
+        } catch (IOException e) {
+            help();
+            return false;
+        }
+    }
+
+    public boolean executeParallel(String[] cmds) {
+        try {
+            final String GREEN = "\033[0;32m";
+            final String CYAN = "\033[0;36m";
+            final String RESET = "\033[0m";
+
+            // hash the file's leaves on the common ForkJoinPool and key the final node with the passphrase
+            byte[] tag;
+            try (FileChannel in = FileChannel.open(new File(cmds[2]).toPath(), StandardOpenOption.READ)) {
+                tag = ParallelHash256.kmacXOF(cmds[3].getBytes(), in, ParallelHash256.DEFAULT_BLOCK_SIZE,
+                        KMAC.KMACXOF256_LENGTH, "T".getBytes());
+            }
+
+            // get dest file location and write data to it
+            String dest = getDefaultDestination(cmds[2], "parallel-authtag");
+            write(new File(dest), tag);
+            System.out.println(
+                    "\nSuccessfully created auth tag!\n " + CYAN + "--- src:  " + cmds[2].replace("\\", "/") + GREEN
+                            + "\n --- dest: "
+                            + dest + RESET);
+            return true;
         } catch (IOException e) {
             help();
+            return false;
+        }
+    }
+
+    public boolean executeRecursive(String[] cmds) {
+        try {
+            String[] args = BatchPipeline.withoutParallelism(cmds);
+            if (args.length != 4) {
+                help();
+                return false;
+            }
+            byte[] pw = args[3].getBytes();
+
+            // tag every file below the directory, streaming each one
+            return new BatchPipeline(BatchPipeline.parallelism(cmds)).run(Path.of(args[2]),
+                    BatchPipeline.notOutput("authtag"), src -> {
+                        byte[] tag;
+                        try (FileChannel in = FileChannel.open(src, StandardOpenOption.READ)) {
+                            tag = computeAuthTag(in, pw);
+                        }
+                        write(new File(getDefaultDestination(src.toString(), "authtag")), tag);
+                    });
+        } catch (IOException | IllegalArgumentException e) {
+            help();
+            return false;
         }
     }
 
+    @Override
+    public boolean isStream(String[] cmds) {
+        return cmds.length > 1 && cmds[1].equals("-");
+    }
+
+    @Override
+    public boolean parseStream(String[] cmds, ReadableByteChannel in, WritableByteChannel out) throws IOException {
+        // auth - [passphrase]
+        if (cmds.length != 3 || !cmds[1].equals("-")) {
+            System.err.println("usage: auth - [passphrase]");
+            return false;
+        }
+        write(out, computeAuthTag(in, cmds[2].getBytes()));
+        return true;
+    }
+
     /**
      * Computes an authentication tag (MAC) of a given file under a given
      * passphrase.
@@ -63,7 +145,48 @@ public class AuthenticationTag implements IService {
      * @return authentication tag (MAC) of the give file under the given password
      */
     public byte[] computeAuthTag(byte[] m, byte[] pw) {
-        return KECCAK.KMACXOF256(pw, m, KMAC.KMACXOF256_LENGTH, "T".getBytes());
+        long start = Metrics.ENABLED ? System.nanoTime() : 0;
+        AuthTagEvent event = new AuthTagEvent();
+        event.begin();
+        byte[] tag = KECCAK.KMACXOF256(pw, m, KMAC.KMACXOF256_LENGTH, "T".getBytes());
+        if (Metrics.ENABLED) {
+            Metrics.AUTH_TAG.record(start, m.length, tag.length);
+        }
+        commit(event, m.length, tag.length);
+        return tag;
+    }
+
+    /**
+     * Computes the same tag as computeAuthTag(byte[], byte[]) over everything left
+     * in the given channel, streaming it in fixed-size chunks
+     *
+     * @param in channel holding the message
+     * @param pw the password used to create the authentication tag
+     * @return authentication tag (MAC) of the message under the given password
+     * @throws IOException if reading the channel fails
+     */
+    public byte[] computeAuthTag(ReadableByteChannel in, byte[] pw) throws IOException {
+        long start = Metrics.ENABLED ? System.nanoTime() : 0;
+        AuthTagEvent event = new AuthTagEvent();
+        event.begin();
+        Kmac256 k = new Kmac256(pw, "T".getBytes());
+        long n = k.updateFrom(in);
+        byte[] tag = k.squeeze(KMAC.KMACXOF256_LENGTH / 8);
+        if (Metrics.ENABLED) {
+            Metrics.AUTH_TAG.record(start, n, tag.length);
+        }
+        commit(event, n, tag.length);
+        return tag;
+    }
+
+    private static void commit(AuthTagEvent event, long bytes, int outputLength) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.bytes = bytes;
+            event.outputLength = outputLength;
+            event.customization = "T";
+            event.commit();
+        }
     }
 
     public void help() {
@@ -77,14 +200,26 @@ public class AuthenticationTag implements IService {
         StringBuilder sb = new StringBuilder();
         // Header
         sb.append(commandColor + "\n" + name + mainColor + " - " + service + "\n\n" + separator + CYAN
-                + " usage: auth [file-path] [passphrase]"
+                + " usage: auth ['-p' -> parallel || '-r' -> recursive] [file-path] [passphrase] ['-j' threads]"
                 + "\n\n");
         // Example 1
         sb.append(
                 mainColor
                         + separator + RED + " Example:\n" + reset + separator
                         + " auth C:/Users/Benjamin/Documents/message.txt 1234\n\n" + separator
-                        + " an authentication tag is automatically generated in the same root folder as the message with the name \"[message_name]-auth.txt\"\n");
+                        + " an authentication tag is automatically generated in the same root folder as the message with the name \"[message_name]-auth.txt\"\n\n");
+        // Example 2
+        sb.append(
+                mainColor
+                        + separator + RED + " Example [Parallel]:\n" + reset + separator
+                        + " auth -p C:/Users/Benjamin/Documents/message.txt 1234\n\n" + separator
+                        + " the tag is computed with a keyed ParallelHashXOF256, leaves hashed in parallel, as \"[message_name]-parallel-authtag.txt\"\n\n");
+        // Example 3
+        sb.append(
+                mainColor
+                        + separator + RED + " Example [Recursive]:\n" + reset + separator
+                        + " auth -r C:/Users/Benjamin/Documents 1234 -j 8\n\n" + separator
+                        + " every file below the directory gets its own \"[name]-authtag.txt\", computed on 8 threads\n");
         // Reset Console Color
         sb.append(reset);
         System.out.println(sb.toString());
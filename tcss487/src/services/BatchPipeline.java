@@ -0,0 +1,154 @@
+package services;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+/**
+ * Runs one file operation over every regular file below a directory. The tree
+ * is walked on the calling thread and every file is read, processed and written
+ * by its own task on a work-stealing pool. At most twice the parallelism tasks
+ * are in flight, so the walk waits for the workers instead of queueing the
+ * whole tree.
+ */
+public final class BatchPipeline {
+
+    /**
+     * Processes one file, writing its output next to it
+     */
+    public interface FileJob {
+        void run(Path src) throws Exception;
+    }
+
+    public static final int DEFAULT_PARALLELISM = Runtime.getRuntime().availableProcessors();
+
+    private final int parallelism;
+
+    public BatchPipeline(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be at least 1");
+        }
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * @return the value of a "-j N" option anywhere in cmds, or
+     *         DEFAULT_PARALLELISM without one
+     */
+    public static int parallelism(String[] cmds) {
+        for (int i = 0; i < cmds.length - 1; i++) {
+            if (cmds[i].equals("-j")) {
+                return Integer.parseInt(cmds[i + 1]);
+            }
+        }
+        return DEFAULT_PARALLELISM;
+    }
+
+    /**
+     * @return cmds without its "-j N" option
+     */
+    public static String[] withoutParallelism(String[] cmds) {
+        for (int i = 0; i < cmds.length - 1; i++) {
+            if (cmds[i].equals("-j")) {
+                String[] rest = new String[cmds.length - 2];
+                System.arraycopy(cmds, 0, rest, 0, i);
+                System.arraycopy(cmds, i + 2, rest, i, cmds.length - i - 2);
+                return rest;
+            }
+        }
+        return cmds;
+    }
+
+    /**
+     * @return a filter skipping the files a batch writes, "[name]-[ext].txt" and
+     *         their ".part" files, so reruns and the running walk do not pick
+     *         them up
+     */
+    public static Predicate<Path> notOutput(String ext) {
+        String suffix = "-" + ext + ".txt";
+        return p -> {
+            String name = p.getFileName().toString();
+            return !name.endsWith(suffix) && !name.endsWith(suffix + ".part");
+        };
+    }
+
+    /**
+     * Run job on every regular file below root accepted by include and print a
+     * summary. Failures are reported per file on stderr and do not stop the
+     * batch.
+     *
+     * @return whether every file was processed, so the caller can exit non-zero
+     */
+    public boolean run(Path root, Predicate<Path> include, FileJob job) throws IOException {
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        Semaphore inFlight = new Semaphore(2 * parallelism);
+        LongAdder files = new LongAdder();
+        LongAdder bytes = new LongAdder();
+        LongAdder failed = new LongAdder();
+
+        long start = System.nanoTime();
+        try {
+            Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    if (!attrs.isRegularFile() || !include.test(file)) {
+                        return FileVisitResult.CONTINUE;
+                    }
+                    inFlight.acquireUninterruptibly();
+                    pool.execute(() -> {
+                        try {
+                            job.run(file);
+                            files.increment();
+                            bytes.add(attrs.size());
+                        } catch (Exception e) {
+                            failed.increment();
+                            System.err.println("failed: " + file + " (" + e + ")");
+                        } finally {
+                            inFlight.release();
+                        }
+                    });
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    failed.increment();
+                    System.err.println("failed: " + file + " (" + e + ")");
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } finally {
+            pool.shutdown();
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    if (pool.awaitTermination(1, TimeUnit.DAYS)) {
+                        break;
+                    }
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        double mb = bytes.sum() / 1e6;
+        System.out.printf("\n%d files, %.1f MB in %.3f s (%.1f files/s, %.1f MB/s) on %d threads\n\n", files.sum(), mb,
+                seconds, files.sum() / seconds, mb / seconds, parallelism);
+        if (failed.sum() > 0) {
+            System.err.println(failed.sum() + " files failed\n");
+        }
+        return failed.sum() == 0;
+    }
+}
@@ -0,0 +1,463 @@
+package services;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import services.kmac.KMAC;
+
+/**
+ * Long-running server exposing the services over a local TCP or Unix-domain
+ * socket, so other processes can use them without starting a JVM per operation.
+ * Every connection is served by its own virtual thread (a platform thread
+ * before Java 21) and may send any number of requests, answered in order.
+ * <p>
+ * A request is a one-byte op and a 4-byte big-endian body length, then the
+ * body: the op's fields, each prefixed with its 4-byte length. A response is a
+ * status byte and a 4-byte length, then the result, or a UTF-8 message when the
+ * status is ERROR.
+ * <p>
+ * A request header and then its body must arrive, and its response be taken,
+ * each within the I/O timeout, otherwise the connection is closed and the bytes
+ * it reserved are released, so a stalled client cannot hold the in-flight
+ * budget or a thread. Each request reserves its body and a bound on its result
+ * from that budget (see resultLength).
+ *
+ * <pre>
+ * op            fields                  result
+ * HASH          m                       KMACXOF256 hash, as kmac
+ * AUTH          pw, m                   tag, as auth
+ * SYMM_ENCRYPT  pw, m                   z || c || t, as symm -e
+ * SYMM_DECRYPT  pw, z || c || t         m
+ * EC_ENCRYPT    key, m                  cryptogram, as ec -e
+ * EC_DECRYPT    pw, cryptogram          m
+ * EC_SIGN       pw, m                   signature, as ec -s
+ * EC_VERIFY     key, m, signature       one byte, 1 if the signature is valid
+ * </pre>
+ *
+ * key is a public key as ec -k writes it.
+ */
+public final class CryptoServer implements Closeable {
+
+    public static final byte HASH = 1;
+    public static final byte AUTH = 2;
+    public static final byte SYMM_ENCRYPT = 3;
+    public static final byte SYMM_DECRYPT = 4;
+    public static final byte EC_ENCRYPT = 5;
+    public static final byte EC_DECRYPT = 6;
+    public static final byte EC_SIGN = 7;
+    public static final byte EC_VERIFY = 8;
+
+    public static final byte OK = 0;
+    public static final byte ERROR = 1;
+
+    public static final int DEFAULT_PORT = 4870;
+    public static final int DEFAULT_MAX_CONCURRENCY = Runtime.getRuntime().availableProcessors();
+    public static final int DEFAULT_MAX_IN_FLIGHT_BYTES = 64 << 20;
+    public static final int DEFAULT_IO_TIMEOUT_MILLIS = 30_000;
+
+    // room reserved for a result besides the size of the body (hashes, tags,
+    // signatures, cryptogram headers and error messages)
+    private static final int RESULT_OVERHEAD = 1024;
+
+    private final ServerSocketChannel server;
+    // set for a Unix-domain socket, which is removed again on close
+    private final Path socketFile;
+    private final ExecutorService executor = newThreadPerTaskExecutor();
+    // closes connections whose body or response is not through in time
+    private final ScheduledThreadPoolExecutor timer = newTimer();
+    private final Set<SocketChannel> clients = ConcurrentHashMap.newKeySet();
+    private volatile boolean closed;
+
+    // requests being executed, and bytes of request bodies and results being held
+    private final Semaphore running;
+    private final Semaphore inFlightBytes;
+    private final int maxInFlightBytes;
+    private final int ioTimeoutMillis;
+
+    private final KMAC kmac = new KMAC();
+    private final AuthenticationTag auth = new AuthenticationTag();
+    private final SymmetricCryptogram symm = new SymmetricCryptogram();
+    private final EllipticCurve ec = new EllipticCurve();
+
+    public CryptoServer(SocketAddress address, int maxConcurrency, int maxInFlightBytes) throws IOException {
+        this(address, maxConcurrency, maxInFlightBytes, DEFAULT_IO_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * @param address          a TCP address or a UnixDomainSocketAddress to
+     *                         listen on
+     * @param maxConcurrency   requests executed at the same time, the rest wait
+     * @param maxInFlightBytes total size of the request bodies and results held
+     *                         at the same time; a single larger request is
+     *                         refused
+     * @param ioTimeoutMillis  time allowed to receive a request header, its body
+     *                         and to send its response
+     */
+    public CryptoServer(SocketAddress address, int maxConcurrency, int maxInFlightBytes, int ioTimeoutMillis)
+            throws IOException {
+        if (maxConcurrency < 1 || maxInFlightBytes < 1 || ioTimeoutMillis < 1) {
+            throw new IllegalArgumentException("limits must be at least 1");
+        }
+        if (address instanceof UnixDomainSocketAddress) {
+            server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+            socketFile = ((UnixDomainSocketAddress) address).getPath();
+        } else {
+            server = ServerSocketChannel.open();
+            socketFile = null;
+        }
+        server.bind(address);
+        running = new Semaphore(maxConcurrency);
+        inFlightBytes = new Semaphore(maxInFlightBytes);
+        this.maxInFlightBytes = maxInFlightBytes;
+        this.ioTimeoutMillis = ioTimeoutMillis;
+    }
+
+    public SocketAddress getLocalAddress() throws IOException {
+        return server.getLocalAddress();
+    }
+
+    /**
+     * Accept connections until the server is closed
+     */
+    public void serve() throws IOException {
+        try {
+            while (true) {
+                SocketChannel client = server.accept();
+                clients.add(client);
+                if (closed) {
+                    // close() may have run before the add
+                    closeQuietly(client);
+                    return;
+                }
+                try {
+                    executor.execute(() -> handle(client));
+                } catch (RejectedExecutionException e) {
+                    // close() shut the executor down after the check above
+                    clients.remove(client);
+                    closeQuietly(client);
+                    return;
+                }
+            }
+        } catch (ClosedChannelException e) {
+            // closed by close()
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        server.close();
+        // unblocks the handlers, which release what they hold and exit
+        for (SocketChannel client : clients) {
+            closeQuietly(client);
+        }
+        executor.shutdown();
+        timer.shutdownNow();
+        if (socketFile != null) {
+            Files.deleteIfExists(socketFile);
+        }
+    }
+
+    // virtual threads where the runtime has them, a cached pool otherwise
+    private static ExecutorService newThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(r -> {
+                Thread t = new Thread(r, "crypto-server");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+
+    private static ScheduledThreadPoolExecutor newTimer() {
+        ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread t = new Thread(r, "crypto-server-timeout");
+            t.setDaemon(true);
+            return t;
+        });
+        timer.setRemoveOnCancelPolicy(true);
+        return timer;
+    }
+
+    private static void closeQuietly(SocketChannel client) {
+        try {
+            client.close();
+        } catch (IOException e) {
+            // closing anyway
+        }
+    }
+
+    /**
+     * Close the connection unless the returned deadline is cancelled within the
+     * I/O timeout. A read or write blocked on it then fails.
+     */
+    private Future<?> deadline(SocketChannel client) {
+        try {
+            return timer.schedule(() -> closeQuietly(client), ioTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // the server is closing
+            closeQuietly(client);
+            return CompletableFuture.completedFuture(null);
+        }
+    }
+
+    private void handle(SocketChannel client) {
+        try (client) {
+            ByteBuffer header = ByteBuffer.allocate(5);
+            while (readHeader(client, header)) {
+                byte op = header.get();
+                int length = header.getInt();
+                long reserved = length < 0 ? -1 : length + resultLength(op, length);
+                if (reserved < 0 || reserved > maxInFlightBytes) {
+                    respond(client, ERROR, "request too large".getBytes(StandardCharsets.UTF_8));
+                    return;
+                }
+
+                // wait until the body and the result fit under the in-flight limit
+                // before reading the body
+                inFlightBytes.acquireUninterruptibly((int) reserved);
+                try {
+                    ByteBuffer body = ByteBuffer.allocate(length);
+                    Future<?> deadline = deadline(client);
+                    try {
+                        while (body.hasRemaining()) {
+                            if (client.read(body) == -1) {
+                                throw new EOFException();
+                            }
+                        }
+                    } finally {
+                        deadline.cancel(false);
+                    }
+                    body.flip();
+                    byte status = OK;
+                    byte[] result;
+                    running.acquireUninterruptibly();
+                    try {
+                        result = execute(op, body);
+                    } catch (Exception e) {
+                        status = ERROR;
+                        result = String.valueOf(e.getMessage()).getBytes(StandardCharsets.UTF_8);
+                    } finally {
+                        running.release();
+                    }
+                    deadline = deadline(client);
+                    try {
+                        respond(client, status, result);
+                    } finally {
+                        deadline.cancel(false);
+                    }
+                } finally {
+                    inFlightBytes.release((int) reserved);
+                }
+            }
+        } catch (IOException e) {
+            // the client went away, timed out or the server was closed
+        } finally {
+            clients.remove(client);
+        }
+    }
+
+    /**
+     * Read the next request header within the I/O timeout
+     *
+     * @return false if the client closed the connection between requests
+     */
+    private boolean readHeader(SocketChannel client, ByteBuffer header) throws IOException {
+        header.clear();
+        Future<?> deadline = deadline(client);
+        try {
+            while (header.hasRemaining()) {
+                if (client.read(header) == -1) {
+                    if (header.position() == 0) {
+                        return false;
+                    }
+                    throw new EOFException();
+                }
+            }
+        } finally {
+            deadline.cancel(false);
+        }
+        header.flip();
+        return true;
+    }
+
+    /**
+     * @return an upper bound on the size of the result (or error message) of op
+     *         for a body of length bytes
+     */
+    private static long resultLength(byte op, int length) {
+        switch (op) {
+            case SYMM_ENCRYPT:
+            case SYMM_DECRYPT:
+            case EC_ENCRYPT:
+            case EC_DECRYPT:
+                return (long) length + RESULT_OVERHEAD;
+            default:
+                return RESULT_OVERHEAD;
+        }
+    }
+
+    private static void respond(SocketChannel client, byte status, byte[] result) throws IOException {
+        ByteBuffer[] frame = { ByteBuffer.allocate(5).put(status).putInt(result.length).flip(),
+                ByteBuffer.wrap(result) };
+        while (frame[0].hasRemaining() || frame[1].hasRemaining()) {
+            client.write(frame);
+        }
+    }
+
+    private byte[] execute(byte op, ByteBuffer body) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        switch (op) {
+            case HASH:
+                return kmac.hashKMACXOF256(field(body));
+            case AUTH: {
+                byte[] pw = field(body);
+                return auth.computeAuthTag(field(body), pw);
+            }
+            case SYMM_ENCRYPT: {
+                byte[] pw = field(body);
+                symm.encrypt(channel(field(body)), Channels.newChannel(out), pw);
+                return out.toByteArray();
+            }
+            case SYMM_DECRYPT: {
+                byte[] pw = field(body);
+                if (!symm.decrypt(channel(field(body)), Channels.newChannel(out), pw)) {
+                    throw new IOException("invalid password or corrupted cryptogram");
+                }
+                return out.toByteArray();
+            }
+            case EC_ENCRYPT: {
+                byte[] key = field(body);
+                return ec.encrypt(key, field(body));
+            }
+            case EC_DECRYPT: {
+                byte[] pw = field(body);
+                byte[] m = ec.decrypt(field(body), pw);
+                if (m == null) {
+                    throw new IOException("invalid password or corrupted cryptogram");
+                }
+                return m;
+            }
+            case EC_SIGN: {
+                byte[] pw = field(body);
+                return ec.sign(field(body), pw);
+            }
+            case EC_VERIFY: {
+                byte[] key = field(body);
+                byte[] m = field(body);
+                return new byte[] { (byte) (ec.verify(key, m, field(body)) ? 1 : 0) };
+            }
+            default:
+                throw new IOException("unknown op " + op);
+        }
+    }
+
+    private static byte[] field(ByteBuffer body) throws IOException {
+        if (body.remaining() < 4) {
+            throw new IOException("missing field");
+        }
+        int n = body.getInt();
+        if (n < 0 || n > body.remaining()) {
+            throw new IOException("invalid field length");
+        }
+        byte[] b = new byte[n];
+        body.get(b);
+        return b;
+    }
+
+    private static ReadableByteChannel channel(byte[] b) {
+        return Channels.newChannel(new ByteArrayInputStream(b));
+    }
+
+    /**
+     * java Hash serve [--port N | --unix path] [--max-concurrency N]
+     * [--max-inflight-bytes N] [--io-timeout millis]
+     */
+    public static void main(String[] args) {
+        SocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), DEFAULT_PORT);
+        int maxConcurrency = DEFAULT_MAX_CONCURRENCY;
+        int maxInFlightBytes = DEFAULT_MAX_IN_FLIGHT_BYTES;
+        int ioTimeoutMillis = DEFAULT_IO_TIMEOUT_MILLIS;
+        try {
+            for (int i = 0; i < args.length; i += 2) {
+                String value = args[i + 1];
+                switch (args[i]) {
+                    case "--port":
+                        address = new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(value));
+                        break;
+                    case "--unix":
+                        address = UnixDomainSocketAddress.of(value);
+                        break;
+                    case "--max-concurrency":
+                        maxConcurrency = Integer.parseInt(value);
+                        break;
+                    case "--max-inflight-bytes":
+                        maxInFlightBytes = Integer.parseInt(value);
+                        break;
+                    case "--io-timeout":
+                        ioTimeoutMillis = Integer.parseInt(value);
+                        break;
+                    default:
+                        throw new IllegalArgumentException(args[i]);
+                }
+            }
+        } catch (RuntimeException e) {
+            System.out.println("usage: serve [--port N | --unix path] [--max-concurrency N] [--max-inflight-bytes N]"
+                    + " [--io-timeout millis]");
+            return;
+        }
+
+        CryptoServer server;
+        try {
+            server = new CryptoServer(address, maxConcurrency, maxInFlightBytes, ioTimeoutMillis);
+        } catch (IOException | IllegalArgumentException e) {
+            System.out.println("Unable to start the server: " + e.getMessage());
+            return;
+        }
+
+        // removes the Unix-domain socket file on Ctrl-C
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                server.close();
+            } catch (IOException e) {
+                // exiting anyway
+            }
+        }));
+        try {
+            System.out.println("Listening on " + server.getLocalAddress() + " (" + maxConcurrency
+                    + " concurrent requests, " + maxInFlightBytes + " bytes in flight)");
+            server.serve();
+        } catch (IOException e) {
+            System.out.println("Server stopped: " + e.getMessage());
+        }
+    }
+}
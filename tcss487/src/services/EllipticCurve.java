@@ -1,19 +1,38 @@
 package services;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.security.SecureRandom;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
 
 import services.kmac.KECCAK;
+import services.kmac.Kmac256;
+import services.kmac.Xor;
+import services.events.CryptogramEvent;
+import services.events.KeyDerivationEvent;
+import services.events.SignEvent;
+import services.events.VerifyEvent;
+import services.metrics.Metrics;
 
 /**
  * @author Benjamin Stewart
@@ -32,6 +51,9 @@ public class EllipticCurve implements IService {
             new BigInteger("337554763258501705789107630418782636071904961214051226618635150085779108655765"));
     public static final BigInteger n = BigInteger.valueOf(4).multiply(r);
 
+    // random key the payload of a multi-recipient cryptogram is encrypted under
+    private static final int DATA_KEY_LENGTH = 64;
+
     private byte[] prependZero(byte[] original) {
         byte[] zerobyte = new byte[1];
         byte[] bytes = new byte[original.length + 1];
@@ -40,10 +62,9 @@ public class EllipticCurve implements IService {
     }
 
     // Generate an elliptic key pair from a given passphrase and write the public
-    // key to a file.
+    // key to a file. Returns null if the key could not be written.
     public KeyPair generateKeyPair(byte[] pw, File dest) {
-        byte[] s_bytes = KECCAK.KMACXOF256(pw, "".getBytes(), 512, "K".getBytes());
-        BigInteger s = new BigInteger(prependZero(s_bytes)).multiply(BigInteger.valueOf(4));
+        BigInteger s = privateKey(pw);
         Point V = G.multiply(s);
 
         KeyPair pair = new KeyPair(s, V);
@@ -57,48 +78,151 @@ public class EllipticCurve implements IService {
             System.out.println(
                     "\033[0;31m" + "\nUnable to write public key to file! Probably incorrect path...\n" + "\u001B[0m");
             help();
+            return null;
         }
         return pair;
     }
 
-    public void encrypt(File data, File key, File dest) {
+    // s = 4 * KMACXOF256(pw, "", 512, "K")
+    private BigInteger privateKey(byte[] pw) {
+        KeyDerivationEvent event = new KeyDerivationEvent();
+        event.begin();
+        byte[] s_bytes = KECCAK.KMACXOF256(pw, "".getBytes(), 512, "K".getBytes());
+        BigInteger s = new BigInteger(prependZero(s_bytes)).multiply(BigInteger.valueOf(4));
+        event.end();
+        if (event.shouldCommit()) {
+            event.customization = "K";
+            event.outputLength = s_bytes.length;
+            event.commit();
+        }
+        return s;
+    }
+
+    /**
+     * Derive one key pair per passphrase. The public keys are computed in
+     * parallel and normalized to affine coordinates together, with a single
+     * field inversion.
+     */
+    public KeyPair[] generateKeyPairs(List<byte[]> pws) {
+        BigInteger[] s = new BigInteger[pws.size()];
+        ProjectivePoint[] V = new ProjectivePoint[s.length];
+        IntStream.range(0, s.length).parallel().forEach(i -> {
+            s[i] = privateKey(pws.get(i));
+            V[i] = G.multiplyProjective(s[i]);
+        });
+        Point[] affine = ProjectivePoint.toAffine(V);
+
+        KeyPair[] pairs = new KeyPair[s.length];
+        for (int i = 0; i < s.length; i++) {
+            pairs[i] = new KeyPair(s[i], affine[i]);
+        }
+        return pairs;
+    }
+
+    // Generate a key pair for every line of a passphrase file and write the
+    // public keys to key-<line>.txt in a directory.
+    public boolean generateKeyPairs(File passwords, File destDir) {
+        List<byte[]> pws = new ArrayList<>();
+        try {
+            for (String line : Files.readAllLines(passwords.toPath())) {
+                pws.add(line.getBytes());
+            }
+        } catch (IOException e) {
+            System.out.println("\033[0;31m" + "\nUnable to read passphrase file!\n" + "\u001B[0m");
+            help();
+            return false;
+        }
+
+        long start = System.nanoTime();
+        KeyPair[] pairs = generateKeyPairs(pws);
+        try {
+            for (int i = 0; i < pairs.length; i++) {
+                pairs[i].writePublicKey(new File(destDir, "key-" + (i + 1) + ".txt"));
+            }
+        } catch (IOException e) {
+            System.out.println(
+                    "\033[0;31m" + "\nUnable to write public key to file! Probably incorrect path...\n" + "\u001B[0m");
+            help();
+            return false;
+        }
+        System.out.printf("\nSuccessfully created %d keys in %s%s%s (%d ms)\n\n", pairs.length, "\033[0;32m",
+                destDir.getAbsolutePath(), "\u001B[0m", (System.nanoTime() - start) / 1_000_000);
+        return true;
+    }
+
+    public boolean encrypt(File data, File key, File dest) {
         Point pubkey;
         try {
             pubkey = Point.readPublicKey(key);
         } catch (Exception e) {
             System.out.println("Invalid public key.");
             help();
-            return;
+            return false;
         }
 
-        try {
-            byte[] m = Files.readAllBytes(data.toPath());
-            Cryptogram zct = schnorrEncrypt(m, pubkey);
-            zct.writeCryptogram(dest);
+        try (FileChannel in = FileChannel.open(data.toPath(), StandardOpenOption.READ);
+                FileChannel out = FileChannel.open(dest.toPath(), StandardOpenOption.CREATE,
+                        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            schnorrEncrypt(in, out, pubkey);
+            return true;
         } catch (Exception e) {
             e.printStackTrace();
             System.out.println("Invalid data, key, or dest ?");
+            return false;
         }
     }
 
-    public void decrypt(File data, byte[] pw, File dest) {
+    public boolean decrypt(File data, byte[] pw, File dest) {
         try {
+            if (Wire.peekType(data) == Wire.STREAM_CRYPTOGRAM) {
+                return decryptStream(data, pw, dest);
+            }
             Cryptogram gram = Cryptogram.readCryptogram(data);
             byte[] m = schnorrDecrypt(gram, pw);
 
             // invalid password
             if (m == null) {
                 System.out.println("\nInvalid password\n");
-            } else {
-                write(dest, m);
-                System.out.println("\nSuccessfully written to " + dest.getAbsolutePath() + "\n");
+                return false;
             }
+            write(dest, m);
+            System.out.println("\nSuccessfully written to " + dest.getAbsolutePath() + "\n");
+            return true;
         } catch (IOException | ClassNotFoundException e) {
             help();
+            return false;
+        }
+    }
+
+    // Decrypt a streamed cryptogram chunk by chunk into a .part file that only
+    // replaces dest once the trailing tag has been checked.
+    private boolean decryptStream(File data, byte[] pw, File dest) throws IOException {
+        Path part = dest.toPath().resolveSibling(dest.getName() + ".part");
+        try {
+            boolean valid;
+            try (FileChannel in = FileChannel.open(data.toPath(), StandardOpenOption.READ);
+                    FileChannel out = FileChannel.open(part, StandardOpenOption.CREATE,
+                            StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                valid = schnorrDecrypt(in, out, pw);
+            }
+
+            if (valid) {
+                Files.move(part, dest.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                System.out.println("\nSuccessfully written to " + dest.getAbsolutePath() + "\n");
+            } else {
+                // invalid password or corrupted cryptogram
+                System.out.println("\nInvalid password\n");
+            }
+            return valid;
+        } finally {
+            Files.deleteIfExists(part);
         }
     }
 
     public Cryptogram schnorrEncrypt(byte[] m, Point V) {
+        long start = Metrics.ENABLED ? System.nanoTime() : 0;
+        CryptogramEvent event = new CryptogramEvent();
+        event.begin();
         // store 512 bits / 64 bytes of random data
         SecureRandom rand = new SecureRandom();
         byte[] k_bytes = new byte[64];
@@ -111,100 +235,534 @@ public class EllipticCurve implements IService {
         Point Z = G.multiply(k);
 
         // (ke || ka) = KMACXOF256(Wx, "", 1024, "P")
-        byte[] ke_ka = KECCAK.KMACXOF256(W.x.toByteArray(), "".getBytes(), 1024, "P".getBytes());
-        byte[] ke = Arrays.copyOfRange(ke_ka, 0, ke_ka.length / 2);
-        byte[] ka = Arrays.copyOfRange(ke_ka, ke_ka.length / 2, ke_ka.length);
+        byte[][] keys = deriveKeys(W);
+        byte[] ke = keys[0];
+        byte[] ka = keys[1];
 
         // c = KMACXOF256(ke, "", |m|, "PKE") XOR m
         byte[] c = KECCAK.KMACXOF256(ke, "".getBytes(), m.length * 8, "PKE".getBytes());
-        for (int i = 0; i < m.length; i++)
-            c[i] ^= m[i];
+        Xor.xor(c, 0, m, 0, m.length);
 
         // t = KMACXOF256(ka, m, 512, "PKA")
         byte[] t = KECCAK.KMACXOF256(ka, m, 512, "PKA".getBytes());
+        if (Metrics.ENABLED) {
+            Metrics.EC_ENCRYPT.record(start, m.length, Wire.POINT_LENGTH + c.length + t.length);
+        }
+        commit(event, "ec", "encrypt", m.length, true);
         return new Cryptogram(Z, c, t);
     }
 
+    /**
+     * Streaming form of schnorrEncrypt: writes the header and Z, then c one chunk
+     * at a time from an incremental "PKE" keystream, then t, with m absorbed into
+     * the "PKA" tag in the same pass. Memory use does not depend on |m|.
+     */
+    public void schnorrEncrypt(ReadableByteChannel in, WritableByteChannel out, Point V) throws IOException {
+        long start = Metrics.ENABLED ? System.nanoTime() : 0;
+        CryptogramEvent event = new CryptogramEvent();
+        event.begin();
+        SecureRandom rand = new SecureRandom();
+        byte[] k_bytes = new byte[64];
+        rand.nextBytes(k_bytes);
+        BigInteger k = new BigInteger(prependZero(k_bytes)).multiply(BigInteger.valueOf(4));
+
+        Point W = V.multiply(k);
+        Point Z = G.multiply(k);
+        byte[][] keys = deriveKeys(W);
+
+        ByteBuffer buf = Wire.header(Wire.STREAM_CRYPTOGRAM, Wire.POINT_LENGTH);
+        Wire.putPoint(buf, Z);
+        Wire.writeFully(out, buf.flip());
+
+        // c = KMACXOF256(ke, "", |m|, "PKE") XOR m, t = KMACXOF256(ka, m, 512, "PKA")
+        long n = SymmetricCryptogram.encryptStream(in, out, new Kmac256(keys[0], "PKE".getBytes()),
+                new Kmac256(keys[1], "PKA".getBytes()));
+        if (Metrics.ENABLED) {
+            Metrics.EC_ENCRYPT.record(start, n, buf.limit() + n + SymmetricCryptogram.T_LENGTH);
+        }
+        commit(event, "ec", "encrypt", n, true);
+    }
+
+    // Encrypt a file once for several recipients: the payload is encrypted
+    // symmetrically under a random data key and only that key is wrapped for
+    // every public key.
+    public boolean encryptMulti(File data, List<File> keys, File dest) {
+        if (keys.size() > RecipientHeader.MAX_RECIPIENTS) {
+            System.out.println("At most " + RecipientHeader.MAX_RECIPIENTS + " recipients are supported.");
+            return false;
+        }
+        List<Point> recipients = new ArrayList<>();
+        try {
+            for (File key : keys) {
+                recipients.add(Point.readPublicKey(key));
+            }
+        } catch (Exception e) {
+            System.out.println("Invalid public key.");
+            help();
+            return false;
+        }
+
+        try (FileChannel in = FileChannel.open(data.toPath(), StandardOpenOption.READ);
+                FileChannel out = FileChannel.open(dest.toPath(), StandardOpenOption.CREATE,
+                        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            encryptMulti(in, out, recipients);
+            System.out.println("\nSuccessfully encrypted for " + recipients.size() + " recipients to " + "\033[0;32m"
+                    + dest.getAbsolutePath() + "\u001B[0m" + "\n");
+            return true;
+        } catch (IOException e) {
+            System.out.println("Invalid data, key, or dest ?");
+            return false;
+        }
+    }
+
+    // Decrypt a multi-recipient cryptogram with the passphrase of any of its
+    // recipients.
+    public boolean decryptMulti(File data, byte[] pw, File dest) {
+        Path part = dest.toPath().resolveSibling(dest.getName() + ".part");
+        try {
+            boolean valid;
+            try (FileChannel in = FileChannel.open(data.toPath(), StandardOpenOption.READ);
+                    FileChannel out = FileChannel.open(part, StandardOpenOption.CREATE,
+                            StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                valid = decryptMulti(in, out, pw);
+            }
+
+            // the plaintext only replaces dest once its tag has been checked
+            if (valid) {
+                Files.move(part, dest.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                System.out.println("\nSuccessfully written to " + dest.getAbsolutePath() + "\n");
+            } else {
+                System.out.println("\nInvalid password or corrupted cryptogram\n");
+            }
+            return valid;
+        } catch (IOException e) {
+            help();
+            return false;
+        } finally {
+            try {
+                Files.deleteIfExists(part);
+            } catch (IOException e) {
+                // nothing left to clean up
+            }
+        }
+    }
+
+    /**
+     * Channel form of ec -em: the recipient header, then the payload encrypted
+     * as symm -e does, under a random data key
+     */
+    public void encryptMulti(ReadableByteChannel in, WritableByteChannel out, List<Point> recipients)
+            throws IOException {
+        long start = Metrics.ENABLED ? System.nanoTime() : 0;
+        CryptogramEvent event = new CryptogramEvent();
+        event.begin();
+        byte[] dk = new byte[DATA_KEY_LENGTH];
+        new SecureRandom().nextBytes(dk);
+        RecipientHeader header = wrapDataKey(dk, recipients);
+        header.write(out);
+        long n = new SymmetricCryptogram().encrypt(in, out, dk);
+        if (Metrics.ENABLED) {
+            Metrics.EC_ENCRYPT_MULTI.record(start, n,
+                    header.length() + SymmetricCryptogram.Z_LENGTH + n + SymmetricCryptogram.T_LENGTH);
+        }
+        commit(event, "ec-multi", "encrypt", n, true);
+    }
+
+    /**
+     * Channel form of ec -dm. The plaintext is written before the tag can be
+     * checked, so callers must discard the output when this returns false.
+     *
+     * @return whether pw unwrapped the data key and the payload's tag matched
+     */
+    public boolean decryptMulti(ReadableByteChannel in, WritableByteChannel out, byte[] pw) throws IOException {
+        long start = Metrics.ENABLED ? System.nanoTime() : 0;
+        CryptogramEvent event = new CryptogramEvent();
+        event.begin();
+        RecipientHeader header = RecipientHeader.read(in);
+        byte[] dk = unwrapDataKey(header, pw);
+        long n = dk == null ? -1 : new SymmetricCryptogram().decryptLength(in, out, dk);
+        if (Metrics.ENABLED) {
+            if (n >= 0) {
+                Metrics.EC_DECRYPT_MULTI.record(start,
+                        header.length() + SymmetricCryptogram.Z_LENGTH + n + SymmetricCryptogram.T_LENGTH, n);
+            } else {
+                Metrics.EC_DECRYPT_MULTI.recordFailure(start);
+            }
+        }
+        commit(event, "ec-multi", "decrypt", Math.max(n, 0), n >= 0);
+        return n >= 0;
+    }
+
+    /**
+     * Wrap a data key for every recipient. All wraps share one ephemeral
+     * Z = k*G; W_i = k*V_i are computed in parallel and normalized together, then
+     * the data key is encrypted and tagged under each W_i as schnorrEncrypt does
+     * with a message.
+     */
+    public RecipientHeader wrapDataKey(byte[] dk, List<Point> recipients) {
+        SecureRandom rand = new SecureRandom();
+        byte[] k_bytes = new byte[64];
+        rand.nextBytes(k_bytes);
+        BigInteger k = new BigInteger(prependZero(k_bytes)).multiply(BigInteger.valueOf(4));
+
+        Point Z = G.multiply(k);
+        ProjectivePoint[] W = new ProjectivePoint[recipients.size()];
+        IntStream.range(0, W.length).parallel().forEach(i -> W[i] = recipients.get(i).multiplyProjective(k));
+        Point[] affine = ProjectivePoint.toAffine(W);
+
+        byte[][] c = new byte[W.length][], t = new byte[W.length][];
+        IntStream.range(0, W.length).parallel().forEach(i -> {
+            byte[][] keys = deriveKeys(affine[i]);
+            c[i] = KECCAK.KMACXOF256(keys[0], "".getBytes(), dk.length * 8, "PKE".getBytes());
+            Xor.xor(c[i], 0, dk, 0, dk.length);
+            t[i] = KECCAK.KMACXOF256(keys[1], dk, 512, "PKA".getBytes());
+        });
+        return new RecipientHeader(Z, c, t);
+    }
+
+    /**
+     * @return the data key wrapped for the owner of pw, or null if none of the
+     *         wraps is for them
+     */
+    public byte[] unwrapDataKey(RecipientHeader header, byte[] pw) {
+        Point W = header.Z.multiplyConstantTime(privateKey(pw));
+        byte[][] keys = deriveKeys(W);
+        for (int i = 0; i < header.c.length; i++) {
+            byte[] dk = KECCAK.KMACXOF256(keys[0], "".getBytes(), header.c[i].length * 8, "PKE".getBytes());
+            Xor.xor(dk, 0, header.c[i], 0, dk.length);
+            if (Arrays.equals(header.t[i], KECCAK.KMACXOF256(keys[1], dk, 512, "PKA".getBytes()))) {
+                return dk;
+            }
+        }
+        return null;
+    }
+
+    // (ke || ka) = KMACXOF256(Wx, "", 1024, "P")
+    private static byte[][] deriveKeys(Point W) {
+        KeyDerivationEvent event = new KeyDerivationEvent();
+        event.begin();
+        byte[] ke_ka = KECCAK.KMACXOF256(W.x.toByteArray(), "".getBytes(), 1024, "P".getBytes());
+        event.end();
+        if (event.shouldCommit()) {
+            event.customization = "P";
+            event.outputLength = ke_ka.length;
+            event.commit();
+        }
+        return new byte[][] { Arrays.copyOfRange(ke_ka, 0, ke_ka.length / 2),
+                Arrays.copyOfRange(ke_ka, ke_ka.length / 2, ke_ka.length) };
+    }
+
     public byte[] schnorrDecrypt(Cryptogram gram, byte[] pw) {
+        long start = Metrics.ENABLED ? System.nanoTime() : 0;
+        CryptogramEvent event = new CryptogramEvent();
+        event.begin();
         // s = KMACXOF256(pw, "", 512, "K"); s = 4s
-        byte[] s_bytes = KECCAK.KMACXOF256(pw, "".getBytes(), 512, "K".getBytes());
-        BigInteger s = new BigInteger(prependZero(s_bytes));
-        s = s.multiply(BigInteger.valueOf(4));
+        BigInteger s = privateKey(pw);
 
-        // W = s*Z
-        Point W = gram.Z.multiply(s);
+        // W = s*Z, s being the long-term secret
+        Point W = gram.Z.multiplyConstantTime(s);
 
         // (ke || ka) = KMACXOF256(Wx, "", 1024, "P")
-        byte[] ke_ka = KECCAK.KMACXOF256(W.x.toByteArray(), "".getBytes(), 1024, "P".getBytes());
-        byte[] ke = Arrays.copyOfRange(ke_ka, 0, ke_ka.length / 2);
-        byte[] ka = Arrays.copyOfRange(ke_ka, ke_ka.length / 2, ke_ka.length);
+        byte[][] keys = deriveKeys(W);
+        byte[] ke = keys[0];
+        byte[] ka = keys[1];
 
         // m = KMACXOF256(ke, "", |c|, "PKE") XOR c
         byte[] m = KECCAK.KMACXOF256(ke, "".getBytes(), gram.c.length * 8, "PKE".getBytes());
-        for (int i = 0; i < m.length; i++)
-            m[i] ^= gram.c[i];
+        Xor.xor(m, 0, gram.c, 0, m.length);
 
         byte[] t_prime = KECCAK.KMACXOF256(ka, m, 512, "PKA".getBytes());
+        boolean valid = Arrays.equals(gram.t, t_prime);
+        if (Metrics.ENABLED) {
+            if (valid) {
+                Metrics.EC_DECRYPT.record(start, Wire.POINT_LENGTH + gram.c.length + gram.t.length, m.length);
+            } else {
+                Metrics.EC_DECRYPT.recordFailure(start);
+            }
+        }
+        commit(event, "ec", "decrypt", m.length, valid);
+        return valid ? m : null;
+
+    }
+
+    /**
+     * Streaming form of schnorrDecrypt. The plaintext is written before the tag
+     * can be checked, so callers must discard the output when this returns false.
+     *
+     * @return whether the cryptogram's tag matched
+     */
+    public boolean schnorrDecrypt(ReadableByteChannel in, WritableByteChannel out, byte[] pw) throws IOException {
+        long start = Metrics.ENABLED ? System.nanoTime() : 0;
+        CryptogramEvent event = new CryptogramEvent();
+        event.begin();
+        Wire.readHeader(in, Wire.STREAM_CRYPTOGRAM);
+        Point Z = Wire.getPoint(Wire.readFully(in, Wire.POINT_LENGTH));
+
+        // W = s*Z, s being the long-term secret
+        byte[][] keys = deriveKeys(Z.multiplyConstantTime(privateKey(pw)));
 
-        return Arrays.equals(gram.t, t_prime) ? m : null;
+        // m = KMACXOF256(ke, "", |c|, "PKE") XOR c
+        long n = SymmetricCryptogram.decryptStream(in, out, new Kmac256(keys[0], "PKE".getBytes()),
+                new Kmac256(keys[1], "PKA".getBytes()));
+        if (Metrics.ENABLED) {
+            if (n >= 0) {
+                Metrics.EC_DECRYPT.record(start, 2 + Wire.POINT_LENGTH + n + SymmetricCryptogram.T_LENGTH, n);
+            } else {
+                Metrics.EC_DECRYPT.recordFailure(start);
+            }
+        }
+        commit(event, "ec", "decrypt", Math.max(n, 0), n >= 0);
+        return n >= 0;
+    }
+
+    // In-memory forms of ec -e, -d, -s and -v over the same formats, for
+    // CryptoServer
 
+    byte[] encrypt(byte[] key, byte[] m) throws IOException {
+        Point V = Point.readPublicKey(Channels.newChannel(new ByteArrayInputStream(key)));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        schnorrEncrypt(Channels.newChannel(new ByteArrayInputStream(m)), Channels.newChannel(out), V);
+        return out.toByteArray();
     }
 
-    public void generateSignature(File src, File dest, byte[] pw) {
+    // null if the password or the cryptogram is wrong
+    byte[] decrypt(byte[] cryptogram, byte[] pw) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        return schnorrDecrypt(Channels.newChannel(new ByteArrayInputStream(cryptogram)), Channels.newChannel(out), pw)
+                ? out.toByteArray()
+                : null;
+    }
+
+    byte[] sign(byte[] m, byte[] pw) {
+        return generateSignature(m, pw).toBuffer().array();
+    }
+
+    boolean verify(byte[] key, byte[] m, byte[] sig) throws IOException {
+        Point V = Point.readPublicKey(Channels.newChannel(new ByteArrayInputStream(key)));
+        Signature signature = Signature.read(Channels.newChannel(new ByteArrayInputStream(sig)));
+        return isValidSignature(signature, m, V);
+    }
+
+    public boolean generateSignature(File src, File dest, byte[] pw) {
         try {
             byte[] m = Files.readAllBytes(src.toPath());
             Signature sig = generateSignature(m, pw);
             sig.writeSignature(dest);
+            return true;
         } catch (IOException e) {
             System.out.println("Error generating signature");
             help();
+            return false;
         }
-
     }
 
     private Signature generateSignature(byte[] m, byte[] pw) {
+        long start = Metrics.ENABLED ? System.nanoTime() : 0;
+        SignEvent event = new SignEvent();
+        event.begin();
         // set s
         byte[] s_bytes = KECCAK.KMACXOF256(pw, "".getBytes(), 512, "K".getBytes());
         BigInteger s = new BigInteger(prependZero(s_bytes));
         s = s.multiply(BigInteger.valueOf(4));
 
+        // V = G.multiply(s) is e * G for the effective scalar e of s (see
+        // Point.effectiveScalar), so e is the secret the signature is linear in
+        BigInteger e = Point.effective(s).mod(r);
+
         // set k
         byte[] k_bytes = KECCAK.KMACXOF256(s.toByteArray(), m, 512, "N".getBytes());
         BigInteger k = new BigInteger(prependZero(k_bytes));
         k = k.multiply(BigInteger.valueOf(4));
 
         // set U
-        Point U = G.multiply(k);
+        Point U = G.multiplyExact(k);
 
         // set h
         byte[] h_bytes = KECCAK.KMACXOF256(U.x.toByteArray(), m, 512, "T".getBytes());
-        BigInteger h = new BigInteger(prependZero(s_bytes));
+        BigInteger h = new BigInteger(prependZero(h_bytes));
 
         // set z
-        BigInteger z = (k.subtract(h.multiply(s))).mod(r);
+        BigInteger z = (k.subtract(h.multiply(e))).mod(r);
 
-        return new Signature(h_bytes, z);
+        if (Metrics.ENABLED) {
+            Metrics.EC_SIGN.record(start, m.length, h_bytes.length + z.bitLength() / 8 + 1);
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.bytes = m.length;
+            event.commit();
+        }
+        return new Signature(Wire.SIGNATURE_VERSION, h_bytes, z);
     }
 
-    public void verifySignature(File src, File sig, File key) {
+    public boolean verifySignature(File src, File sig, File key) {
         try {
             Signature signature = Signature.readSignature(sig);
             Point V = KeyPair.readPublicKey(key);
             byte[] m = Files.readAllBytes(src.toPath());
-            System.out.println(
-                    isValidSignature(signature, m, V) ? "\nSignature IS valid!\n" : "\nSignature ISN'T valid!\n");
+            boolean valid = isValidSignature(signature, m, V);
+            System.out.println(valid ? "\nSignature IS valid!\n" : "\nSignature ISN'T valid!\n");
+            return valid;
         } catch (ClassNotFoundException | IOException e) {
+            System.out.println("\033[0;31m" + "\nUnable to read the message, signature or key: " + e.getMessage() + "\n"
+                    + "\u001B[0m");
             help();
+            return false;
         }
     }
 
     public boolean isValidSignature(Signature sig, byte[] m, Point V) {
-        Point U = (G.multiply(sig.z)).add(V.multiply(new BigInteger(prependZero(sig.h))));
-        byte[] h_prime = KECCAK.KMACXOF256(U.x.toByteArray(), m, 512, "T".getBytes());
-        System.out.println(KECCAK.bytes_to_hex(sig.h));
-        System.out.println();
-        System.out.println(KECCAK.bytes_to_hex(h_prime));
-        return Arrays.equals(sig.h, h_prime);
+        VerifyEvent event = new VerifyEvent();
+        event.begin();
+        boolean valid = Arrays.equals(sig.h, recomputeH(sig, m, V));
+        commit(event, m.length, valid);
+        return valid;
+    }
+
+    private static void commit(VerifyEvent event, long bytes, boolean valid) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.bytes = bytes;
+            event.valid = valid;
+            event.commit();
+        }
+    }
+
+    private static void commit(CryptogramEvent event, String scheme, String operation, long bytes, boolean valid) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.scheme = scheme;
+            event.operation = operation;
+            event.bytes = bytes;
+            event.valid = valid;
+            event.commit();
+        }
+    }
+
+    private byte[] recomputeH(Signature sig, byte[] m, Point V) {
+        long start = Metrics.ENABLED ? System.nanoTime() : 0;
+        byte[] h = hashU(computeU(sig, V).toAffine(), m);
+        if (Metrics.ENABLED) {
+            Metrics.EC_VERIFY.record(start, m.length, 0);
+        }
+        return h;
+    }
+
+    // U = z*G + h*V, in projective coordinates. Version 1 signatures were made
+    // with the bit-reversed Point.multiply, for which this never holds; they are
+    // checked the same way as before.
+    private ProjectivePoint computeU(Signature sig, Point V) {
+        BigInteger h = new BigInteger(prependZero(sig.h));
+        if (sig.version == Wire.SIGNATURE_VERSION) {
+            return Point.multiplyAddExactProjective(sig.z.mod(r), G, h.mod(r), V);
+        }
+        return Point.multiplyAddProjective(sig.z, G, h, V);
+    }
+
+    // h' = KMACXOF256(U_x, m, 512, "T")
+    private byte[] hashU(Point U, byte[] m) {
+        return KECCAK.KMACXOF256(U.x.toByteArray(), m, 512, "T".getBytes());
+    }
+
+    // Verify every signature of a manifest, one "message signature key" triple
+    // per line, and print the per-item results. Returns whether all are valid.
+    public boolean verifyBatch(File manifest) {
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(manifest.toPath());
+        } catch (IOException e) {
+            System.out.println("\033[0;31m" + "\nUnable to read manifest!\n" + "\u001B[0m");
+            help();
+            return false;
+        }
+
+        long start = System.nanoTime();
+        File dir = manifest.getAbsoluteFile().getParentFile();
+        List<String> names = new ArrayList<>();
+        List<SignedMessage> items = new ArrayList<>();
+        // the same public key is usually listed many times
+        Map<File, Point> keys = new HashMap<>();
+        for (String line : lines) {
+            String[] parts = line.trim().split("\\s+");
+            if (parts[0].isEmpty() || parts[0].startsWith("#")) {
+                continue;
+            }
+            names.add(parts[0]);
+            if (parts.length != 3) {
+                items.add(null);
+                continue;
+            }
+            try {
+                File key = resolve(dir, parts[2]);
+                Point V = keys.get(key);
+                if (V == null) {
+                    V = KeyPair.readPublicKey(key);
+                    keys.put(key, V);
+                }
+                items.add(new SignedMessage(Files.readAllBytes(resolve(dir, parts[0]).toPath()),
+                        Signature.readSignature(resolve(dir, parts[1])), V));
+            } catch (ClassNotFoundException | IOException | RuntimeException e) {
+                // an unreadable or corrupt entry only invalidates itself
+                items.add(null);
+            }
+        }
+
+        boolean[] valid = verifyBatch(items);
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        int count = 0;
+        for (int i = 0; i < valid.length; i++) {
+            System.out.println((valid[i] ? "\033[0;32m" + "  valid   " : "\033[0;31m" + "  invalid ") + "\u001B[0m"
+                    + names.get(i));
+            count += valid[i] ? 1 : 0;
+        }
+        System.out.printf("\n%d of %d signatures valid (%.1f signatures/s)\n\n", count, valid.length,
+                valid.length / seconds);
+        return count == valid.length;
+    }
+
+    private static File resolve(File dir, String path) {
+        File file = new File(path);
+        return file.isAbsolute() ? file : new File(dir, path);
+    }
+
+    /**
+     * Verify many signatures, spread over the available cores
+     *
+     * @param items signed messages, null entries count as invalid
+     * @return whether each item carries a valid signature
+     */
+    public boolean[] verifyBatch(List<SignedMessage> items) {
+        // every item is recorded with the time from the start of the batch to its
+        // own result
+        long start = Metrics.ENABLED ? System.nanoTime() : 0;
+        VerifyEvent[] events = new VerifyEvent[items.size()];
+        for (int i = 0; i < events.length; i++) {
+            events[i] = new VerifyEvent();
+            events[i].begin();
+        }
+        // compute every U, normalize them together, then hash
+        ProjectivePoint[] U = new ProjectivePoint[items.size()];
+        IntStream.range(0, U.length).parallel().forEach(i -> {
+            SignedMessage item = items.get(i);
+            U[i] = item == null ? new ProjectivePoint(Point.neutral) : computeU(item.sig, item.V);
+        });
+        Point[] affine = ProjectivePoint.toAffine(U);
+
+        boolean[] valid = new boolean[U.length];
+        IntStream.range(0, valid.length).parallel().forEach(i -> {
+            SignedMessage item = items.get(i);
+            valid[i] = item != null && Arrays.equals(item.sig.h, hashU(affine[i], item.m));
+            if (Metrics.ENABLED) {
+                if (item != null) {
+                    Metrics.EC_VERIFY.record(start, item.m.length, 0);
+                } else {
+                    Metrics.EC_VERIFY.recordFailure(start);
+                }
+            }
+            commit(events[i], item == null ? 0 : item.m.length, valid[i]);
+        });
+        return valid;
     }
 
     public void help() {
@@ -220,9 +778,19 @@ public class EllipticCurve implements IService {
         // -k flag
         System.out.printf("\t%s-k%s -> generate a schnorr key pair from a passphrase\n", CYAN, reset);
         System.out.printf("\t      %sExample: ec -k password ~/.../test-key.txt%s\n\n", GREEN, reset);
+        // -kb flag
+        System.out.printf("\t%s-kb%s -> generate a key pair for every line of a passphrase file\n", CYAN, reset);
+        System.out.printf("\t      %sExample: ec -kb ~/.../passphrases.txt ~/.../keys%s\n\n", GREEN, reset);
         // -e flag
         System.out.printf("\t%s-e%s -> encrypt a byte array under the schnorr public key\n", CYAN, reset);
         System.out.printf("\t      %sExample: ec -e ~/.../message.txt ~/.../test-key.txt%s\n\n", GREEN, reset);
+        // -em flag
+        System.out.printf("\t%s-em%s -> encrypt a file once for several schnorr public keys\n", CYAN, reset);
+        System.out.printf("\t      %sExample: ec -em ~/.../message.txt ~/.../key-1.txt ~/.../key-2.txt%s\n\n", GREEN,
+                reset);
+        // -dm flag
+        System.out.printf("\t%s-dm%s -> decrypt a multi-recipient cryptogram under a passphrase\n", CYAN, reset);
+        System.out.printf("\t      %sExample: ec -dm ~/.../multi-encrypted-message.txt password%s\n\n", GREEN, reset);
         // -d flag
         System.out.printf("\t%s-d%s -> decrypt a cryptogram under a passphrase\n", CYAN, reset);
         System.out.printf("\t      %sExample: ec -d ~/.../encrypted-message.txt password%s\n\n", GREEN, reset);
@@ -233,17 +801,54 @@ public class EllipticCurve implements IService {
         System.out.printf("\t%s-v%s -> verify a signature for a byte array under a public key\n", CYAN, reset);
         System.out.printf("\t      %sExample: ec -v ~/.../message.txt ~/.../signature.txt ~/.../key.txt\n\n%s", GREEN,
                 reset);
+        // -vb flag
+        System.out.printf("\t%s-vb%s -> verify every \"message signature key\" line of a manifest\n", CYAN, reset);
+        System.out.printf("\t      %sExample: ec -vb ~/.../manifest.txt\n\n%s", GREEN, reset);
     }
 
     public String getDescription() {
         return this.service;
     }
 
-    public void parse(String[] cmds) {
+    @Override
+    public boolean isStream(String[] cmds) {
+        return cmds.length > 2 && cmds[2].equals("-");
+    }
+
+    @Override
+    public boolean parseStream(String[] cmds, ReadableByteChannel in, WritableByteChannel out) throws IOException {
+        // ec -e - [public key file] / ec -d - [password]
+        if (cmds.length != 4 || !cmds[2].equals("-")) {
+            System.err.println("usage: ec ['-e' - [public key file] || '-d' - [password]]");
+            return false;
+        }
+        if (cmds[1].equals("-e")) {
+            Point V;
+            try {
+                V = Point.readPublicKey(new File(cmds[3]));
+            } catch (IOException | ClassNotFoundException e) {
+                System.err.println("Invalid public key.");
+                return false;
+            }
+            schnorrEncrypt(in, out, V);
+            return true;
+        } else if (cmds[1].equals("-d")) {
+            // only the streamed format can be decrypted without seeking
+            if (!schnorrDecrypt(in, out, cmds[3].getBytes())) {
+                System.err.println("Invalid password or corrupted cryptogram");
+                return false;
+            }
+            return true;
+        }
+        System.err.println("usage: ec ['-e' - [public key file] || '-d' - [password]]");
+        return false;
+    }
+
+    public boolean parse(String[] cmds) {
         // base command: 'ec'
         if (cmds.length == 1) {
             help();
-            return;
+            return false;
         }
         // flags:
 
@@ -254,13 +859,24 @@ public class EllipticCurve implements IService {
             // example -> ec -k 1234 C:\Users\...\new_key_location.txt
             if (cmds.length != 4) {
                 help();
-                return;
+                return false;
             }
             byte[] password = cmds[2].getBytes();
             File file = new File(cmds[3]);
 
-            generateKeyPair(password, file);
-            return;
+            return generateKeyPair(password, file) != null;
+        }
+
+        // -kb -> one elliptic key pair per line of a passphrase file
+        else if (cmds[1].equals("-kb")) {
+            // arguments for bulk key generation => passphrase file, directory to write to
+            // usage -> ec -kb [passphrase file] [directory to write to]
+            // example -> ec -kb C:\Users\...\passphrases.txt C:\Users\...\keys
+            if (cmds.length != 4) {
+                help();
+                return false;
+            }
+            return generateKeyPairs(new File(cmds[2]), new File(cmds[3]));
         }
 
         // -e -> elliptic curve encryption under a given public key file
@@ -271,14 +887,42 @@ public class EllipticCurve implements IService {
             // example -> ec -e C:\Users\...\message.txt C:\Users\...\pk.txt
             if (cmds.length != 4) {
                 help();
-                return;
+                return false;
             }
 
             File data = new File(cmds[2]);
             File key = new File(cmds[3]);
             File dest = new File(getDefaultDestination(cmds[2], "ec-encrypted"));
-            encrypt(data, key, dest);
-            return;
+            return encrypt(data, key, dest);
+        }
+        // -em -> encryption of one file for several public key files
+        else if (cmds[1].equals("-em")) {
+            // arguments for multi-recipient encryption => file to encrypt, public key files
+            // usage -> ec -em [file to encrypt] [public key file]...
+            // example -> ec -em C:\Users\...\message.txt C:\Users\...\pk1.txt C:\Users\...\pk2.txt
+            if (cmds.length < 4) {
+                help();
+                return false;
+            }
+
+            List<File> keys = new ArrayList<>();
+            for (int i = 3; i < cmds.length; i++) {
+                keys.add(new File(cmds[i]));
+            }
+            return encryptMulti(new File(cmds[2]), keys,
+                    new File(getDefaultDestination(cmds[2], "multi-encrypted")));
+        }
+        // -dm -> decryption of a multi-recipient cryptogram with a password
+        else if (cmds[1].equals("-dm")) {
+            // arguments for multi-recipient decryption => encrypted file and a pw
+            // usage -> ec -dm [encrypted file] [password]
+            // example -> ec -dm C:\Users\...\message-multi-encrypted.txt 1234
+            if (cmds.length != 4) {
+                help();
+                return false;
+            }
+            return decryptMulti(new File(cmds[2]), cmds[3].getBytes(),
+                    new File(getDefaultDestination(cmds[2], "multi-decrypted")));
         }
         // -d -> elliptic curve decryption given an ec encrypted file and a password
         else if (cmds[1].equals("-d")) {
@@ -288,13 +932,13 @@ public class EllipticCurve implements IService {
 
             if (cmds.length != 4) {
                 help();
-                return;
+                return false;
             }
 
             File data = new File(cmds[2]);
             File dest = new File(getDefaultDestination(cmds[2], "ec-decrypted"));
             byte[] pw = cmds[3].getBytes();
-            decrypt(data, pw, dest);
+            return decrypt(data, pw, dest);
         }
 
         // -s -> sign a given password and write the signature to a file
@@ -302,177 +946,49 @@ public class EllipticCurve implements IService {
             // arguments for ec signing => file and a pw
             // usage -> ec -s [file] [password]
             // example -> ec -s C:\Users\...\file.txt 1234
+            if (cmds.length != 4) {
+                help();
+                return false;
+            }
             File message = new File(cmds[2]);
             File dest = new File(getDefaultDestination(cmds[2], "sig"));
             byte[] pw = cmds[3].getBytes();
-            generateSignature(message, dest, pw);
+            return generateSignature(message, dest, pw);
         }
         // -v -> verify a given data file and its signature under a public key
         else if (cmds[1].equals("-v")) {
             // arguments for ec verification => data file and its signature
             // usage -> ec -s [data file] [signature file] [key file]
             // example -> es -d C:\Users\...\df.txt C:\Users\...\sig.txt
+            if (cmds.length != 5) {
+                help();
+                return false;
+            }
             File message = new File(cmds[2]);
             File sig = new File(cmds[3]);
             File key = new File(cmds[4]);
 
-            verifySignature(message, sig, key);
+            return verifySignature(message, sig, key);
+        }
+        // -vb -> verify every signature listed in a manifest
+        else if (cmds[1].equals("-vb")) {
+            // arguments for batch verification => manifest of data, signature and key files
+            // usage -> ec -vb [manifest file]
+            // example -> ec -vb C:\Users\...\manifest.txt
+            if (cmds.length != 3) {
+                help();
+                return false;
+            }
+            return verifyBatch(new File(cmds[2]));
         }
 
         // not a valid sub command
         else {
             help();
-        }
-    }
-
-}
-
-class Point implements Serializable {
-
-    private static final long serialVersionUID = 1L;
-
-    public static final BigInteger d = BigInteger.valueOf(-376014);
-    public static final BigInteger prime = BigInteger.valueOf(2).pow(521).subtract(BigInteger.valueOf(1));
-    public static final Point neutral = new Point(BigInteger.ZERO, BigInteger.ONE);
-
-    BigInteger x, y;
-
-    public Point(BigInteger x, BigInteger y) {
-        this.x = x;
-        this.y = y;
-    }
-
-    public Point(BigInteger x, boolean lsb) {
-        this.x = x;
-
-        // y = +- sqrt((1 - x^2) / (1 + 376014x^2) mod p)
-
-        BigInteger x_2 = x.pow(2).mod(prime);
-        BigInteger num = BigInteger.ONE.subtract(x_2);
-
-        BigInteger denom = BigInteger.ONE.add(BigInteger.valueOf(376014).multiply(x_2).mod(prime));
-
-        this.y = sqrt(num.multiply(denom.modInverse(prime)), prime, lsb);
-    }
-
-    public Point(Point p) {
-        this.x = p.x;
-        this.y = p.y;
-    }
-
-    public Point opposite() {
-        return new Point(x.multiply(BigInteger.valueOf(-1)), y);
-    }
-
-    public Point add(Point p) {
-        // let x = (a + b) / (1 + d*c*f)
-        BigInteger a = x.multiply(p.y);
-        BigInteger b = y.multiply(p.x);
-
-        BigInteger c = x.multiply(p.x);
-        BigInteger f = y.multiply(p.y);
-        BigInteger dcf = d.multiply(c).multiply(f);
-
-        BigInteger num_x = a.add(b);
-        BigInteger den_x = (BigInteger.ONE).add(dcf);
-
-        BigInteger new_x = num_x.multiply(den_x.modInverse(prime)).mod(prime);
-
-        // let y = (u - v) / (1 - d*r*s)
-        BigInteger u = y.multiply(p.y);
-        BigInteger v = x.multiply(p.x);
-
-        BigInteger r = x.multiply(p.x);
-        BigInteger s = y.multiply(p.y);
-        BigInteger drs = d.multiply(r).multiply(s);
-
-        BigInteger num_y = u.subtract(v);
-        BigInteger den_y = (BigInteger.ONE).subtract(drs);
-
-        BigInteger new_y = num_y.multiply(den_y.modInverse(prime)).mod(prime);
-
-        Point new_point = new Point(new_x, new_y);
-        return new_point;
-    }
-
-    public Point multiply(BigInteger s) {
-        // create two new copies of the current instance
-        Point P = new Point(this);
-        Point V = new Point(this);
-
-        // get information about bitstring of s
-        String bits = s.toString(2);
-        int k = s.bitLength();
-
-        // do addition
-        for (int i = k - 1; i >= 0; i--) {
-            V = V.add(V);
-            if (bits.charAt(i) == '1') {
-                V = V.add(P);
-            }
-        }
-        return V;
-    }
-
-    public boolean equals(Point p) {
-        if (this == p) {
-            return true;
-        } else if (x.equals(p.x) && y.equals(p.y)) {
-            return true;
-        } else {
             return false;
         }
     }
 
-    public void print() {
-        System.out.printf("(x: %s, y: %s)", this.x.toString(10), this.y.toString(10));
-    }
-
-    // https://mkyong.com/java/how-to-read-and-write-java-object-to-a-file/
-    public void writePublicKey(File file) throws FileNotFoundException, IOException {
-        FileOutputStream stream = new FileOutputStream(file);
-        ObjectOutputStream output = new ObjectOutputStream(stream);
-
-        output.writeObject(this);
-
-        stream.close();
-        output.close();
-    }
-
-    public static Point readPublicKey(File file) throws FileNotFoundException, IOException, ClassNotFoundException {
-        FileInputStream stream = new FileInputStream(file);
-        ObjectInputStream input = new ObjectInputStream(stream);
-
-        Point pubkey = (Point) input.readObject();
-
-        stream.close();
-        input.close();
-
-        return pubkey;
-    }
-
-    /**
-     * Compute a square root of v mod p with a specified least significant bit, if
-     * such a root exists.
-     *
-     * @param v   the radicand.
-     * @param p   the modulus (must satisfy p mod 4 = 3).
-     * @param lsb desired least significant bit (true: 1, false: 0).
-     * @return a square root r of v mod p with r mod 2 = 1 iff lsb = true
-     *         if such a root exists, otherwise null.
-     */
-    public BigInteger sqrt(BigInteger v, BigInteger p, boolean lsb) {
-        assert (p.testBit(0) && p.testBit(1)); // p = 3 (mod 4)
-        if (v.signum() == 0) {
-            return BigInteger.ZERO;
-        }
-        BigInteger r = v.modPow(p.shiftRight(2).add(BigInteger.ONE), p);
-        if (r.testBit(0) != lsb) {
-            r = p.subtract(r); // correct the lsb
-        }
-        return (r.multiply(r).subtract(v).mod(p).signum() == 0) ? r : null;
-    }
-
 }
 
 class KeyPair {
@@ -485,29 +1001,27 @@ class KeyPair {
         this.V = V;
     }
 
-    // https://mkyong.com/java/how-to-read-and-write-java-object-to-a-file/
     public void writePublicKey(File file) throws FileNotFoundException, IOException {
-        FileOutputStream stream = new FileOutputStream(file);
-        ObjectOutputStream output = new ObjectOutputStream(stream);
-
-        output.writeObject(this.V);
-
-        stream.close();
-        output.close();
+        V.writePublicKey(file);
     }
 
     public static Point readPublicKey(File file) throws FileNotFoundException, IOException, ClassNotFoundException {
-        FileInputStream stream = new FileInputStream(file);
-        ObjectInputStream input = new ObjectInputStream(stream);
+        return Point.readPublicKey(file);
+    }
 
-        Point pubkey = (Point) input.readObject();
+}
 
-        stream.close();
-        input.close();
+class SignedMessage {
 
-        return pubkey;
-    }
+    byte[] m;
+    Signature sig;
+    Point V;
 
+    public SignedMessage(byte[] m, Signature sig, Point V) {
+        this.m = m;
+        this.sig = sig;
+        this.V = V;
+    }
 }
 
 class Cryptogram implements Serializable {
@@ -533,27 +1047,103 @@ class Cryptogram implements Serializable {
         }
     }
 
+    // version, type, Z, t and |c|, then c written straight from the array
     public void writeCryptogram(File file) throws IOException {
-        FileOutputStream stream = new FileOutputStream(file);
-        ObjectOutputStream output = new ObjectOutputStream(stream);
-
-        output.writeObject(this);
-
-        stream.close();
-        output.close();
+        ByteBuffer buf = Wire.header(Wire.CRYPTOGRAM, Wire.POINT_LENGTH + 4 + t.length + 8);
+        Wire.putPoint(buf, Z);
+        Wire.putBytes(buf, t);
+        buf.putLong(c.length).flip();
+        try (FileChannel out = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            Wire.writeFully(out, buf);
+            Wire.writeFully(out, ByteBuffer.wrap(c));
+        }
     }
 
     public static Cryptogram readCryptogram(File file)
             throws FileNotFoundException, IOException, ClassNotFoundException {
-        FileInputStream stream = new FileInputStream(file);
-        ObjectInputStream input = new ObjectInputStream(stream);
+        try (FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (Wire.isLegacy(in)) {
+                return Wire.readLegacy(in, Cryptogram.class);
+            }
+            Wire.readHeader(in, Wire.CRYPTOGRAM);
+            Point Z = Wire.getPoint(Wire.readFully(in, Wire.POINT_LENGTH));
+            byte[] t = Wire.readBytes(in, Wire.MAX_FIELD_LENGTH);
+            long n = Wire.readFully(in, 8).getLong();
+            if (n < 0 || n > Integer.MAX_VALUE || n != in.size() - in.position()) {
+                throw new IOException("invalid cryptogram length");
+            }
+            // c is the rest of the file, read directly into its array
+            return new Cryptogram(Z, Wire.readFully(in, (int) n).array(), t);
+        }
+    }
+}
+
+/**
+ * Per-recipient part of a multi-recipient cryptogram: the shared ephemeral
+ * point Z and, for every recipient, the wrapped data key c_i and its tag t_i.
+ * It is stored ahead of the symmetric payload.
+ */
+class RecipientHeader {
+
+    // bound on the recipient count read back
+    static final int MAX_RECIPIENTS = 1 << 16;
 
-        Cryptogram gram = (Cryptogram) input.readObject();
+    // length prefixes of c_i and t_i
+    private static final int MIN_ENTRY_LENGTH = 8;
 
-        stream.close();
-        input.close();
+    Point Z;
+    byte[][] c, t;
 
-        return gram;
+    public RecipientHeader(Point Z, byte[][] c, byte[][] t) {
+        this.Z = Z;
+        this.c = c;
+        this.t = t;
+    }
+
+    // version, type, Z, recipient count, then c_i and t_i for every recipient
+    public void write(WritableByteChannel out) throws IOException {
+        ByteBuffer buf = Wire.header(Wire.RECIPIENT_HEADER, length() - 2);
+        Wire.putPoint(buf, Z);
+        buf.putInt(c.length);
+        for (int i = 0; i < c.length; i++) {
+            Wire.putBytes(buf, c[i]);
+            Wire.putBytes(buf, t[i]);
+        }
+        Wire.writeFully(out, buf.flip());
+    }
+
+    /**
+     * @return the number of bytes write produces
+     */
+    public int length() {
+        int length = 2 + Wire.POINT_LENGTH + 4;
+        for (int i = 0; i < c.length; i++) {
+            length += 8 + c[i].length + t[i].length;
+        }
+        return length;
+    }
+
+    public static RecipientHeader read(ReadableByteChannel in) throws IOException {
+        Wire.readHeader(in, Wire.RECIPIENT_HEADER);
+        Point Z = Wire.getPoint(Wire.readFully(in, Wire.POINT_LENGTH));
+        int n = Wire.readFully(in, 4).getInt();
+        if (n < 0 || n > MAX_RECIPIENTS) {
+            throw new IOException("invalid recipient count");
+        }
+        // a file must hold at least the length prefixes of every entry
+        if (in instanceof SeekableByteChannel) {
+            SeekableByteChannel file = (SeekableByteChannel) in;
+            if ((long) n * MIN_ENTRY_LENGTH > file.size() - file.position()) {
+                throw new IOException("invalid recipient count");
+            }
+        }
+        byte[][] c = new byte[n][], t = new byte[n][];
+        for (int i = 0; i < n; i++) {
+            c[i] = Wire.readBytes(in, Wire.MAX_FIELD_LENGTH);
+            t[i] = Wire.readBytes(in, Wire.MAX_FIELD_LENGTH);
+        }
+        return new RecipientHeader(Z, c, t);
     }
 }
 
@@ -564,31 +1154,46 @@ class Signature implements Serializable {
     byte[] h;
     BigInteger z;
 
-    public Signature(byte[] h, BigInteger z) {
+    // Wire.SIGNATURE_VERSION, or older for signatures made before the exact
+    // scalar multiplication (0 when deserialized)
+    transient byte version;
+
+    public Signature(byte version, byte[] h, BigInteger z) {
+        this.version = version;
         this.h = h;
         this.z = z;
     }
 
-    // https://mkyong.com/java/how-to-read-and-write-java-object-to-a-file/
+    // version, type, h and z, both length-prefixed
     public void writeSignature(File file) throws FileNotFoundException, IOException {
-        FileOutputStream stream = new FileOutputStream(file);
-        ObjectOutputStream output = new ObjectOutputStream(stream);
-
-        output.writeObject(this);
+        Wire.write(file, toBuffer());
+    }
 
-        stream.close();
-        output.close();
+    ByteBuffer toBuffer() {
+        byte[] z_bytes = z.toByteArray();
+        ByteBuffer buf = Wire.header(version, Wire.SIGNATURE, 8 + h.length + z_bytes.length);
+        Wire.putBytes(buf, h);
+        Wire.putBytes(buf, z_bytes);
+        return buf.flip();
     }
 
     public static Signature readSignature(File file) throws FileNotFoundException, IOException, ClassNotFoundException {
-        FileInputStream stream = new FileInputStream(file);
-        ObjectInputStream input = new ObjectInputStream(stream);
-
-        Signature sig = (Signature) input.readObject();
-
-        stream.close();
-        input.close();
+        try (FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (Wire.isLegacy(in)) {
+                return Wire.readLegacy(in, Signature.class);
+            }
+            return read(in);
+        }
+    }
 
-        return sig;
+    static Signature read(ReadableByteChannel in) throws IOException {
+        byte version = Wire.readHeader(in, Wire.SIGNATURE, Wire.SIGNATURE_VERSION);
+        byte[] h = Wire.readBytes(in, Wire.MAX_FIELD_LENGTH);
+        byte[] z_bytes = Wire.readBytes(in, Wire.MAX_FIELD_LENGTH);
+        if (h.length == 0 || z_bytes.length == 0) {
+            throw new IOException("invalid signature");
+        }
+        return new Signature(version, h, new BigInteger(z_bytes));
     }
-}
\ No newline at end of file
+}
+
@@ -0,0 +1,285 @@
+package services;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+
+import services.kmac.KECCAK;
+
+/**
+ * Precomputed multiples of a fixed base point, used for every multiplication of
+ * the generator G. For each 4-bit window j the table holds v * 16^j * G for
+ * v = 1..15 in affine form, so a multiplication is one mixed addition per
+ * nonzero window and needs no doublings at all.
+ *
+ * The table for G is built on first use and the build time is reported on
+ * stderr. With -Dtcss487.gtable=<file> it is loaded from that file instead, and
+ * written there after building when the file is missing or invalid. The file
+ * ends with a KMACXOF256 of the entries keyed by the base point, and a few
+ * windows picked at random are recomputed from the base point on every load.
+ */
+final class FixedBaseTable {
+
+    private static final int WINDOW = 4;
+    private static final int WINDOWS = 132;
+
+    // largest scalar covered by the table, in bits
+    static final int MAX_BITS = WINDOW * WINDOWS;
+
+    private static final int MAGIC = 0x47544232; // "GTB2"
+    private static final int COORD_BYTES = 66;
+    private static final int HASH_BYTES = 64;
+
+    // windows recomputed when a table is loaded
+    private static final int CHECKED_WINDOWS = 4;
+
+    private final Fp521[][] x = new Fp521[WINDOWS][(1 << WINDOW) - 1];
+    private final Fp521[][] y = new Fp521[WINDOWS][(1 << WINDOW) - 1];
+
+    // NAF width used for G by Point.multiplyAdd
+    static final int ODD_WIDTH = 8;
+
+    private static class Holder {
+        static final FixedBaseTable G = load(EllipticCurve.G, System.getProperty("tcss487.gtable"));
+    }
+
+    private static class OddHolder {
+        static final Fp521[][] G = oddMultiples(EllipticCurve.G);
+    }
+
+    /**
+     * @return the process-wide table for the generator G
+     */
+    static FixedBaseTable forG() {
+        return Holder.G;
+    }
+
+    /**
+     * @return {x, -x, y} of G, 3G, ..., (2^(ODD_WIDTH - 1) - 1)G in affine form
+     */
+    static Fp521[][] oddMultiplesOfG() {
+        return OddHolder.G;
+    }
+
+    private static Fp521[][] oddMultiples(Point P) {
+        int n = 1 << (ODD_WIDTH - 2);
+        Fp521[] x = new Fp521[n], negX = new Fp521[n], y = new Fp521[n], z = new Fp521[n];
+        ProjectivePoint V = new ProjectivePoint(P);
+        ProjectivePoint P2 = new ProjectivePoint(P).dbl();
+        for (int i = 0; i < n; i++) {
+            if (i > 0)
+                V.add(P2);
+            x[i] = new Fp521().set(V.X);
+            y[i] = new Fp521().set(V.Y);
+            z[i] = new Fp521().set(V.Z);
+        }
+        ProjectivePoint.normalize(x, y, z);
+        for (int i = 0; i < n; i++)
+            negX[i] = new Fp521().neg(x[i]);
+        return new Fp521[][] { x, negX, y };
+    }
+
+    private FixedBaseTable() {
+    }
+
+    /**
+     * Build the table for P
+     */
+    static FixedBaseTable build(Point P) {
+        FixedBaseTable table = new FixedBaseTable();
+        int n = WINDOWS * ((1 << WINDOW) - 1);
+        Fp521[] xs = new Fp521[n], ys = new Fp521[n], z = new Fp521[n];
+
+        ProjectivePoint base = new ProjectivePoint(P);
+        ProjectivePoint V = new ProjectivePoint(P);
+        for (int j = 0, e = 0; j < WINDOWS; j++) {
+            // V runs through v * base for v = 1..15, base = 16^j * P
+            V.set(base);
+            for (int v = 0; v < (1 << WINDOW) - 1; v++, e++) {
+                if (v > 0)
+                    V.add(base);
+                xs[e] = table.x[j][v] = new Fp521().set(V.X);
+                ys[e] = table.y[j][v] = new Fp521().set(V.Y);
+                z[e] = new Fp521().set(V.Z);
+            }
+            for (int i = 0; i < WINDOW; i++)
+                base.dbl();
+        }
+
+        ProjectivePoint.normalize(xs, ys, z);
+        return table;
+    }
+
+    /**
+     * Load the table for P from a cache file, or build it (and write the cache
+     * file when one is given)
+     */
+    private static FixedBaseTable load(Point P, String cache) {
+        if (cache != null) {
+            try {
+                FixedBaseTable table = read(new File(cache), P);
+                if (table != null)
+                    return table;
+            } catch (IOException e) {
+                // fall through and rebuild
+            }
+        }
+
+        long start = System.nanoTime();
+        FixedBaseTable table = build(P);
+        System.err.printf("Precomputed %d multiples of G in %d ms%n", WINDOWS * ((1 << WINDOW) - 1),
+                (System.nanoTime() - start) / 1_000_000);
+
+        if (cache != null) {
+            try {
+                table.write(new File(cache), P);
+            } catch (IOException e) {
+                System.err.println("Unable to write the table cache to " + cache);
+            }
+        }
+        return table;
+    }
+
+    /**
+     * Compute e * P in projective coordinates for the base point P of this table
+     *
+     * @param e little-endian words of a scalar below 2^MAX_BITS
+     */
+    ProjectivePoint multiply(long[] e) {
+        ProjectivePoint V = new ProjectivePoint(Point.neutral);
+        for (int j = 0; j < WINDOWS && (j * WINDOW >>> 6) < e.length; j++) {
+            // windows never straddle two words
+            int b = j * WINDOW;
+            int digit = (int) (e[b >>> 6] >>> (b & 63)) & ((1 << WINDOW) - 1);
+            if (digit != 0)
+                V.addAffine(x[j][digit - 1], y[j][digit - 1]);
+        }
+        return V;
+    }
+
+    /**
+     * Write the table to a temporary file next to file and move it into place, so
+     * that other processes never load a partly written table
+     */
+    private void write(File file, Point P) throws IOException {
+        ByteArrayOutputStream entries = new ByteArrayOutputStream(2 * COORD_BYTES * WINDOWS * x[0].length);
+        for (int j = 0; j < WINDOWS; j++) {
+            for (int v = 0; v < x[j].length; v++) {
+                entries.write(toBytes(x[j][v].toBigInteger()));
+                entries.write(toBytes(y[j][v].toBigInteger()));
+            }
+        }
+        byte[] data = entries.toByteArray();
+
+        Path target = file.getAbsoluteFile().toPath();
+        Path tmp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(tmp))) {
+                out.writeInt(MAGIC);
+                out.writeInt(WINDOWS);
+                out.write(data);
+                out.write(hash(data, P));
+            }
+            Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * @return the table for P in file, or null if it is missing or not a valid
+     *         table for P
+     */
+    private static FixedBaseTable read(File file, Point P) throws IOException {
+        int entries = 2 * COORD_BYTES * WINDOWS * ((1 << WINDOW) - 1);
+        if (!file.isFile() || file.length() != 8L + entries + HASH_BYTES)
+            return null;
+
+        byte[] data = new byte[entries], hash = new byte[HASH_BYTES];
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(file.toPath()))) {
+            if (in.readInt() != MAGIC || in.readInt() != WINDOWS)
+                return null;
+            in.readFully(data);
+            in.readFully(hash);
+        }
+        if (!MessageDigest.isEqual(hash, hash(data, P)))
+            return null;
+
+        FixedBaseTable table = new FixedBaseTable();
+        byte[] buf = new byte[COORD_BYTES];
+        for (int j = 0, off = 0; j < WINDOWS; j++) {
+            for (int v = 0; v < table.x[j].length; v++, off += 2 * COORD_BYTES) {
+                System.arraycopy(data, off, buf, 0, COORD_BYTES);
+                BigInteger px = new BigInteger(1, buf);
+                System.arraycopy(data, off + COORD_BYTES, buf, 0, COORD_BYTES);
+                BigInteger py = new BigInteger(1, buf);
+                if (!isOnCurve(px, py))
+                    return null;
+                table.x[j][v] = new Fp521(px);
+                table.y[j][v] = new Fp521(py);
+            }
+        }
+
+        SecureRandom random = new SecureRandom();
+        for (int i = 0; i < CHECKED_WINDOWS; i++) {
+            if (!table.matches(P, random.nextInt(WINDOWS)))
+                return null;
+        }
+        return table;
+    }
+
+    /**
+     * @return whether window j holds v * 16^j * P for v = 1..15
+     */
+    private boolean matches(Point P, int j) {
+        ProjectivePoint base = new ProjectivePoint(P);
+        for (int i = 0; i < j * WINDOW; i++)
+            base.dbl();
+        ProjectivePoint V = new ProjectivePoint(base);
+        for (int v = 0; v < x[j].length; v++) {
+            if (v > 0)
+                V.add(base);
+            Point A = V.toAffine();
+            if (!A.x.mod(Fp521.P).equals(x[j][v].toBigInteger()) || !A.y.mod(Fp521.P).equals(y[j][v].toBigInteger()))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * KMACXOF256 of the table entries, keyed by P
+     */
+    private static byte[] hash(byte[] entries, Point P) {
+        byte[] key = new byte[2 * COORD_BYTES];
+        System.arraycopy(toBytes(P.x.mod(Fp521.P)), 0, key, 0, COORD_BYTES);
+        System.arraycopy(toBytes(P.y.mod(Fp521.P)), 0, key, COORD_BYTES, COORD_BYTES);
+        return KECCAK.KMACXOF256(key, entries, HASH_BYTES * 8, "GTB".getBytes());
+    }
+
+    /**
+     * x^2 + y^2 = 1 + d x^2 y^2 (mod p)
+     */
+    private static boolean isOnCurve(BigInteger px, BigInteger py) {
+        BigInteger p = Fp521.P;
+        BigInteger x2 = px.multiply(px).mod(p), y2 = py.multiply(py).mod(p);
+        BigInteger lhs = x2.add(y2).mod(p);
+        BigInteger rhs = BigInteger.ONE.add(Point.d.multiply(x2).multiply(y2)).mod(p);
+        return lhs.equals(rhs);
+    }
+
+    private static byte[] toBytes(BigInteger v) {
+        byte[] b = v.toByteArray();
+        byte[] out = new byte[COORD_BYTES];
+        int n = Math.min(b.length, COORD_BYTES);
+        System.arraycopy(b, b.length - n, out, COORD_BYTES - n, n);
+        return out;
+    }
+}
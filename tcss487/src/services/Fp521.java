@@ -0,0 +1,223 @@
+package services;
+
+import java.math.BigInteger;
+
+/**
+ * A mutable element of GF(p), p = 2^521 - 1, stored as 18 unsigned 29-bit limbs
+ * (little-endian). Every operation writes its result into this element, so
+ * curve arithmetic can run on a handful of preallocated elements without
+ * producing garbage. Since 2^522 = 2 (mod p), the bits above limb 17 fold back
+ * into limb 0 with a single shift.
+ *
+ * Between operations every limb is below 2^29, i.e. the value is reduced to
+ * [0, 2^522) but not necessarily below p; {@link #toBigInteger()} returns the
+ * canonical representative.
+ */
+final class Fp521 {
+
+    static final BigInteger P = BigInteger.ONE.shiftLeft(521).subtract(BigInteger.ONE);
+
+    private static final int LIMBS = 18;
+    private static final int BITS = 29;
+    private static final long MASK = (1L << BITS) - 1;
+
+    // 4p = 2^523 - 4 with every limb >= 2^29, added before a subtraction so
+    // that no limb goes negative
+    private static final long[] P4 = new long[LIMBS];
+
+    static {
+        P4[0] = (1L << 30) - 4;
+        for (int i = 1; i < LIMBS; i++)
+            P4[i] = (1L << 30) - 2;
+    }
+
+    final long[] l = new long[LIMBS];
+
+    // column sums of a product, kept apart from l so the result may alias an operand
+    private final long[] t = new long[LIMBS];
+
+    Fp521() {
+    }
+
+    Fp521(BigInteger v) {
+        set(v);
+    }
+
+    /**
+     * this = v mod p
+     */
+    Fp521 set(BigInteger v) {
+        v = v.mod(P);
+        for (int i = 0; i < LIMBS; i++)
+            l[i] = v.shiftRight(i * BITS).longValue() & MASK;
+        return this;
+    }
+
+    /**
+     * this = a
+     */
+    Fp521 set(Fp521 a) {
+        System.arraycopy(a.l, 0, l, 0, LIMBS);
+        return this;
+    }
+
+    /**
+     * this = a + b
+     */
+    Fp521 add(Fp521 a, Fp521 b) {
+        for (int i = 0; i < LIMBS; i++)
+            t[i] = a.l[i] + b.l[i];
+        carry(t);
+        return this;
+    }
+
+    /**
+     * this = a - b
+     */
+    Fp521 sub(Fp521 a, Fp521 b) {
+        for (int i = 0; i < LIMBS; i++)
+            t[i] = a.l[i] + P4[i] - b.l[i];
+        carry(t);
+        return this;
+    }
+
+    /**
+     * this = -a
+     */
+    Fp521 neg(Fp521 a) {
+        for (int i = 0; i < LIMBS; i++)
+            t[i] = P4[i] - a.l[i];
+        carry(t);
+        return this;
+    }
+
+    /**
+     * this = a * c for a small constant 0 <= c < 2^29
+     */
+    Fp521 mul(Fp521 a, int c) {
+        for (int i = 0; i < LIMBS; i++)
+            t[i] = a.l[i] * c;
+        carry(t);
+        return this;
+    }
+
+    /**
+     * this = a * b
+     */
+    Fp521 mul(Fp521 a, Fp521 b) {
+        long[] x = a.l, y = b.l;
+        for (int k = 0; k < LIMBS; k++) {
+            // products of weight 2^(29k) and, wrapped around, 2^(29(k + 18)) = 2 * 2^(29k)
+            long lo = 0, hi = 0;
+            for (int i = 0; i <= k; i++)
+                lo += x[i] * y[k - i];
+            for (int i = k + 1; i < LIMBS; i++)
+                hi += x[i] * y[LIMBS + k - i];
+            // at most 35 * 2^58 < 2^64, so the sum is exact read as unsigned
+            t[k] = lo + (hi << 1);
+        }
+        carry(t);
+        return this;
+    }
+
+    /**
+     * this = a^2, computing each cross product once
+     */
+    Fp521 sqr(Fp521 a) {
+        long[] x = a.l;
+        for (int k = 0; k < LIMBS; k++) {
+            long lo = 0, hi = 0;
+            for (int i = 0, j = k; i < j; i++, j--)
+                lo += x[i] * x[j];
+            lo <<= 1;
+            if ((k & 1) == 0)
+                lo += x[k >> 1] * x[k >> 1];
+            for (int i = k + 1, j = LIMBS - 1; i < j; i++, j--)
+                hi += x[i] * x[j];
+            hi <<= 1;
+            if ((k & 1) == 0)
+                hi += x[(k + LIMBS) >> 1] * x[(k + LIMBS) >> 1];
+            t[k] = lo + (hi << 1);
+        }
+        carry(t);
+        return this;
+    }
+
+    /**
+     * this = 1 / a, or 0 if a = 0
+     */
+    Fp521 inv(Fp521 a) {
+        BigInteger v = a.toBigInteger();
+        return set(v.signum() == 0 ? v : v.modInverse(P));
+    }
+
+    /**
+     * this = 1 / a as a^(p - 2), with the same sequence of operations for every
+     * a (0 maps to 0)
+     */
+    Fp521 invConstantTime(Fp521 a) {
+        // p - 2 = 2^521 - 3: raise a to 2^519 - 1, square twice and multiply by a
+        Fp521 x = new Fp521().set(a);
+        for (int i = 1; i < 519; i++)
+            x.sqr(x).mul(x, a);
+        x.sqr(x).sqr(x);
+        return mul(x, a);
+    }
+
+    /**
+     * Swap this and a if bit is 1, leave both unchanged if it is 0, without
+     * branching on bit
+     */
+    void cswap(Fp521 a, long bit) {
+        long mask = -bit;
+        for (int i = 0; i < LIMBS; i++) {
+            long v = (l[i] ^ a.l[i]) & mask;
+            l[i] ^= v;
+            a.l[i] ^= v;
+        }
+    }
+
+    /**
+     * Propagate the (unsigned) column sums in c into 29-bit limbs of this element
+     */
+    private void carry(long[] c) {
+        long carry = 0;
+        for (int i = 0; i < LIMBS; i++) {
+            long v = c[i] + carry;
+            l[i] = v & MASK;
+            carry = v >>> BITS;
+        }
+        // carry has weight 2^522 = 2 (mod p); a second pass leaves at most one
+        // more bit, and only when limbs 2..17 have all wrapped to zero
+        carry <<= 1;
+        for (int i = 0; i < LIMBS; i++) {
+            long v = l[i] + carry;
+            l[i] = v & MASK;
+            carry = v >>> BITS;
+        }
+        l[0] += carry << 1;
+        l[1] += l[0] >>> BITS;
+        l[0] &= MASK;
+    }
+
+    /**
+     * @return the canonical representative in [0, p)
+     */
+    BigInteger toBigInteger() {
+        long[] r = l.clone();
+        // fold bit 521 and above twice, leaving a value in [0, p]
+        for (int n = 0; n < 2; n++) {
+            long carry = r[LIMBS - 1] >>> (BITS - 1);
+            r[LIMBS - 1] &= MASK >>> 1;
+            for (int i = 0; i < LIMBS && carry != 0; i++) {
+                long v = r[i] + carry;
+                r[i] = v & MASK;
+                carry = v >>> BITS;
+            }
+        }
+        BigInteger v = BigInteger.ZERO;
+        for (int i = LIMBS - 1; i >= 0; i--)
+            v = v.shiftLeft(BITS).or(BigInteger.valueOf(r[i]));
+        return v.equals(P) ? BigInteger.ZERO : v;
+    }
+}
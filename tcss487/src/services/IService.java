@@ -2,6 +2,9 @@ package services;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.file.Files;
 
 public abstract interface IService {
@@ -9,15 +12,51 @@ public abstract interface IService {
 
     public String getDescription();
 
-    public void parse(String[] cmds);
+    /**
+     * Run a command typed at the prompt, in a script or given as arguments
+     *
+     * @return false if the arguments were invalid or the command failed
+     */
+    public boolean parse(String[] cmds);
+
+    /**
+     * @return whether cmds has "-" in the position of its input file, so that it
+     *         is run with parseStream
+     */
+    default boolean isStream(String[] cmds) {
+        return false;
+    }
+
+    /**
+     * Run a command whose file argument is "-", reading the data from in and
+     * writing the result to out instead of to files. Messages go to stderr so
+     * out only carries the result.
+     *
+     * @return false if the command failed or is not supported; anything already
+     *         written to out must then be discarded
+     * @throws IOException if reading or writing fails
+     */
+    default boolean parseStream(String[] cmds, ReadableByteChannel in, WritableByteChannel out) throws IOException {
+        System.err.println("'" + cmds[0] + "' can't read from stdin");
+        return false;
+    }
 
     default void write(File file, byte[] data) throws IOException {
         Files.write(file.toPath(), data);
     }
 
+    default void write(WritableByteChannel out, byte[] data) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        while (buf.hasRemaining()) {
+            out.write(buf);
+        }
+    }
+
     default String getDefaultDestination(String src, String ext) {
         String name = src.replace("\\", "/");
-        name = name.substring(name.lastIndexOf("/"), name.lastIndexOf("."));
+        // files without an extension keep their whole name
+        int end = name.lastIndexOf(".") > name.lastIndexOf("/") ? name.lastIndexOf(".") : name.length();
+        name = name.substring(name.lastIndexOf("/"), end);
         String dest = src.replace("\\", "/");
         dest = dest.substring(0, dest.lastIndexOf("/")) + name + "-" + ext + ".txt";
         return dest;
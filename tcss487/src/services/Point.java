@@ -0,0 +1,433 @@
+package services;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.Serializable;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.StandardOpenOption;
+
+import services.events.ScalarMultiplyEvent;
+import services.metrics.Metrics;
+
+class Point implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final BigInteger d = BigInteger.valueOf(-376014);
+    public static final BigInteger prime = BigInteger.valueOf(2).pow(521).subtract(BigInteger.valueOf(1));
+    public static final Point neutral = new Point(BigInteger.ZERO, BigInteger.ONE);
+
+    // window of the NAF used by multiply
+    private static final int WNAF_WIDTH = 5;
+
+    // bits processed by multiplyConstantTime for any scalar below 2^527
+    private static final int LADDER_BITS = 528;
+
+    BigInteger x, y;
+
+    public Point(BigInteger x, BigInteger y) {
+        this.x = x;
+        this.y = y;
+    }
+
+    public Point(BigInteger x, boolean lsb) {
+        this.x = x;
+
+        // y = +- sqrt((1 - x^2) / (1 + 376014x^2) mod p)
+
+        BigInteger x_2 = x.pow(2).mod(prime);
+        BigInteger num = BigInteger.ONE.subtract(x_2);
+
+        BigInteger denom = BigInteger.ONE.add(BigInteger.valueOf(376014).multiply(x_2).mod(prime));
+
+        this.y = sqrt(num.multiply(denom.modInverse(prime)), prime, lsb);
+    }
+
+    public Point(Point p) {
+        this.x = p.x;
+        this.y = p.y;
+    }
+
+    public Point opposite() {
+        return new Point(x.multiply(BigInteger.valueOf(-1)), y);
+    }
+
+    public Point add(Point p) {
+        return new ProjectivePoint(this).add(new ProjectivePoint(p)).toAffine();
+    }
+
+    public Point multiply(BigInteger s) {
+        return multiplyProjective(s).toAffine();
+    }
+
+    /**
+     * multiply without the final conversion to affine coordinates, so that many
+     * results can be normalized together (see ProjectivePoint.toAffine)
+     */
+    ProjectivePoint multiplyProjective(BigInteger s) {
+        int k = s.bitLength();
+        return multiplyProjective(effectiveScalar(s, k + 1), k + 1, k);
+    }
+
+    /**
+     * Compute s * P in the group, for s >= 0. Unlike multiply this is linear in s,
+     * (a + b) * P = a * P + b * P, which signatures rely on;
+     * multiply(s) = multiplyExact(effective(s)).
+     */
+    public Point multiplyExact(BigInteger s) {
+        return multiplyExactProjective(s).toAffine();
+    }
+
+    /**
+     * multiplyExact without the final conversion to affine coordinates
+     */
+    ProjectivePoint multiplyExactProjective(BigInteger s) {
+        if (s.signum() < 0) {
+            throw new IllegalArgumentException("negative scalar");
+        }
+        int k = s.bitLength();
+        return multiplyProjective(words(s, k), k, k);
+    }
+
+    // e * P for e of the given bit length, scalarBits being reported as the size
+    // of the caller's scalar
+    private ProjectivePoint multiplyProjective(long[] e, int bits, int scalarBits) {
+        long start = Metrics.ENABLED ? System.nanoTime() : 0;
+        ScalarMultiplyEvent event = new ScalarMultiplyEvent();
+        event.begin();
+        ProjectivePoint V = scalarMultiply(e, bits);
+        if (Metrics.ENABLED) {
+            Metrics.EC_MULTIPLY.record(start, 0, 0);
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.method = bits <= FixedBaseTable.MAX_BITS && equals(EllipticCurve.G) ? "fixed-base" : "wNAF";
+            event.scalarBits = scalarBits;
+            event.commit();
+        }
+        return V;
+    }
+
+    private ProjectivePoint scalarMultiply(long[] e, int bits) {
+        if (bits <= FixedBaseTable.MAX_BITS && equals(EllipticCurve.G)) {
+            return FixedBaseTable.forG().multiply(e);
+        }
+
+        // evaluate e in width-w NAF, most significant digit first, adding odd
+        // multiples +-P, +-3P, ..., +-15P from a small table
+        int[] naf = wnaf(e, WNAF_WIDTH);
+        ProjectivePoint[] odd = oddMultiples(this);
+
+        int top = naf.length - 1;
+        while (top >= 0 && naf[top] == 0) {
+            top--;
+        }
+        if (top < 0) {
+            return new ProjectivePoint(neutral);
+        }
+        ProjectivePoint V = new ProjectivePoint(odd[naf[top] >> 1]);
+        for (int i = top - 1; i >= 0; i--) {
+            V.dbl();
+            addDigit(V, odd, naf[i]);
+        }
+        return V;
+    }
+
+    /**
+     * Compute a * P + b * Q (each product as multiply computes it) with a single
+     * chain of doublings, interleaving the width-w NAF digits of both scalars
+     * (Straus' method)
+     */
+    public static Point multiplyAdd(BigInteger a, Point P, BigInteger b, Point Q) {
+        return multiplyAddProjective(a, P, b, Q).toAffine();
+    }
+
+    /**
+     * multiplyAdd without the final conversion to affine coordinates
+     */
+    static ProjectivePoint multiplyAddProjective(BigInteger a, Point P, BigInteger b, Point Q) {
+        int bits = Math.max(a.bitLength(), b.bitLength()) + 1;
+        return multiplyAddProjective(effectiveScalar(a, bits), P, effectiveScalar(b, bits), Q, bits - 1);
+    }
+
+    /**
+     * Compute a * P + b * Q with the exact products of multiplyExact, for a, b >= 0
+     */
+    public static Point multiplyAddExact(BigInteger a, Point P, BigInteger b, Point Q) {
+        return multiplyAddExactProjective(a, P, b, Q).toAffine();
+    }
+
+    /**
+     * multiplyAddExact without the final conversion to affine coordinates
+     */
+    static ProjectivePoint multiplyAddExactProjective(BigInteger a, Point P, BigInteger b, Point Q) {
+        if (a.signum() < 0 || b.signum() < 0) {
+            throw new IllegalArgumentException("negative scalar");
+        }
+        int bits = Math.max(a.bitLength(), b.bitLength());
+        return multiplyAddProjective(words(a, bits), P, words(b, bits), Q, bits);
+    }
+
+    // a * P + b * Q for a and b of the same number of words
+    private static ProjectivePoint multiplyAddProjective(long[] a, Point P, long[] b, Point Q, int scalarBits) {
+        long start = Metrics.ENABLED ? System.nanoTime() : 0;
+        ScalarMultiplyEvent event = new ScalarMultiplyEvent();
+        event.begin();
+        ProjectivePoint V = Q.equals(EllipticCurve.G) ? straus(b, Q, a, P) : straus(a, P, b, Q);
+        if (Metrics.ENABLED) {
+            Metrics.EC_MULTIPLY_ADD.record(start, 0, 0);
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.method = "Straus";
+            event.scalarBits = scalarBits;
+            event.commit();
+        }
+        return V;
+    }
+
+    private static ProjectivePoint straus(long[] a, Point P, long[] b, Point Q) {
+
+        // G digits use a wider NAF over a cached affine table (fewer, cheaper
+        // additions)
+        boolean base = P.equals(EllipticCurve.G);
+        int[] nafA = wnaf(a, base ? FixedBaseTable.ODD_WIDTH : WNAF_WIDTH);
+        int[] nafB = wnaf(b, WNAF_WIDTH);
+        Fp521[][] oddG = base ? FixedBaseTable.oddMultiplesOfG() : null;
+        ProjectivePoint[] oddP = base ? null : oddMultiples(P), oddQ = oddMultiples(Q);
+
+        int top = nafA.length - 1;
+        while (top >= 0 && nafA[top] == 0 && nafB[top] == 0) {
+            top--;
+        }
+        ProjectivePoint V = new ProjectivePoint(neutral);
+        for (int i = top; i >= 0; i--) {
+            V.dbl();
+            if (base) {
+                addDigit(V, oddG, nafA[i]);
+            } else {
+                addDigit(V, oddP, nafA[i]);
+            }
+            addDigit(V, oddQ, nafB[i]);
+        }
+        return V;
+    }
+
+    /**
+     * @return P, 3P, ..., (2^(w-1) - 1)P for the NAF width w
+     */
+    private static ProjectivePoint[] oddMultiples(Point P) {
+        ProjectivePoint[] odd = new ProjectivePoint[1 << (WNAF_WIDTH - 2)];
+        odd[0] = new ProjectivePoint(P);
+        ProjectivePoint P2 = new ProjectivePoint(odd[0]).dbl();
+        for (int i = 1; i < odd.length; i++) {
+            odd[i] = new ProjectivePoint(odd[i - 1]).add(P2);
+        }
+        return odd;
+    }
+
+    /**
+     * V = V + digit * P for an odd NAF digit (or nothing for 0), odd holding the
+     * odd multiples of P
+     */
+    private static void addDigit(ProjectivePoint V, ProjectivePoint[] odd, int digit) {
+        if (digit > 0) {
+            V.add(odd[digit >> 1]);
+        } else if (digit < 0) {
+            V.sub(odd[-digit >> 1]);
+        }
+    }
+
+    /**
+     * Same as above for affine odd multiples {x, -x, y}
+     */
+    private static void addDigit(ProjectivePoint V, Fp521[][] odd, int digit) {
+        if (digit > 0) {
+            V.addAffine(odd[0][digit >> 1], odd[2][digit >> 1]);
+        } else if (digit < 0) {
+            V.addAffine(odd[1][-digit >> 1], odd[2][-digit >> 1]);
+        }
+    }
+
+    /**
+     * Same result as multiply, computed with a Montgomery ladder over a fixed
+     * number of bits: every step is one addition, one doubling and two
+     * conditional swaps whatever the bits of s, and the final inversion is a
+     * fixed exponentiation. Meant for secret scalars; only the bit length of s
+     * is not hidden (it determines the effective scalar).
+     */
+    public Point multiplyConstantTime(BigInteger s) {
+        long start = Metrics.ENABLED ? System.nanoTime() : 0;
+        ScalarMultiplyEvent event = new ScalarMultiplyEvent();
+        event.begin();
+        int bits = Math.max(LADDER_BITS, s.bitLength() + 1);
+        long[] e = effectiveScalar(s, bits);
+
+        ProjectivePoint R0 = new ProjectivePoint(neutral);
+        ProjectivePoint R1 = new ProjectivePoint(this);
+        for (int i = bits - 1; i >= 0; i--) {
+            long b = (e[i >>> 6] >>> (i & 63)) & 1;
+            R0.cswap(R1, b);
+            R1.add(R0);
+            R0.dbl();
+            R0.cswap(R1, b);
+        }
+        Point W = R0.toAffineConstantTime();
+        if (Metrics.ENABLED) {
+            Metrics.EC_MULTIPLY_CONSTANT_TIME.record(start, 0, 0);
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.method = "ladder";
+            event.scalarBits = s.bitLength();
+            event.commit();
+        }
+        return W;
+    }
+
+    /**
+     * multiply consumes the bits of s from least to most significant while
+     * doubling, starting from this point, so it computes e * P with
+     * e = 2^k + (s with its k bits reversed), k = s.bitLength(). This returns e
+     * as little-endian 64-bit words, sized for at least the given number of bits
+     * plus one spare word.
+     */
+    static long[] effectiveScalar(BigInteger s, int bits) {
+        int k = s.bitLength();
+        long[] e = new long[(Math.max(bits, k + 1) + 63) / 64 + 1];
+        e[k >>> 6] |= 1L << k;
+        for (int i = 0; i < k; i++) {
+            int b = k - 1 - i;
+            e[b >>> 6] |= (s.testBit(i) ? 1L : 0L) << b;
+        }
+        return e;
+    }
+
+    /**
+     * effectiveScalar as a number: multiply(s) = multiplyExact(effective(s))
+     */
+    static BigInteger effective(BigInteger s) {
+        int k = s.bitLength();
+        BigInteger e = BigInteger.ONE.shiftLeft(k);
+        for (int i = 0; i < k; i++) {
+            if (s.testBit(i)) {
+                e = e.setBit(k - 1 - i);
+            }
+        }
+        return e;
+    }
+
+    /**
+     * s >= 0 as little-endian 64-bit words, sized like effectiveScalar
+     */
+    static long[] words(BigInteger s, int bits) {
+        long[] e = new long[(Math.max(bits, s.bitLength()) + 63) / 64 + 1];
+        for (int i = 0; i < e.length - 1; i++) {
+            e[i] = s.shiftRight(64 * i).longValue();
+        }
+        return e;
+    }
+
+    /**
+     * Width-w non-adjacent form of the (nonnegative) number in e: odd digits in
+     * (-2^(w-1), 2^(w-1)), least significant first, with at least w - 1 zeros
+     * after every nonzero digit. e is consumed.
+     */
+    static int[] wnaf(long[] e, int w) {
+        int[] naf = new int[e.length * 64 + 1];
+        int mask = (1 << w) - 1;
+        for (int i = 0; i < naf.length && !isZero(e); i++) {
+            if ((e[0] & 1) != 0) {
+                int u = (int) (e[0] & mask);
+                if (u >= 1 << (w - 1)) {
+                    u -= 1 << w;
+                }
+                naf[i] = u;
+                // e -= u, clearing the low w bits
+                if (u > 0) {
+                    e[0] -= u;
+                } else {
+                    long carry = -u;
+                    for (int j = 0; j < e.length && carry != 0; j++) {
+                        e[j] += carry;
+                        carry = Long.compareUnsigned(e[j], carry) < 0 ? 1 : 0;
+                    }
+                }
+            }
+            for (int j = 0; j < e.length; j++) {
+                e[j] = (e[j] >>> 1) | (j + 1 < e.length ? e[j + 1] << 63 : 0);
+            }
+        }
+        return naf;
+    }
+
+    private static boolean isZero(long[] e) {
+        for (long v : e) {
+            if (v != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public boolean equals(Point p) {
+        if (this == p) {
+            return true;
+        } else if (x.equals(p.x) && y.equals(p.y)) {
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    public void print() {
+        System.out.printf("(x: %s, y: %s)", this.x.toString(10), this.y.toString(10));
+    }
+
+    public void writePublicKey(File file) throws FileNotFoundException, IOException {
+        ByteBuffer buf = Wire.header(Wire.PUBLIC_KEY, Wire.POINT_LENGTH);
+        Wire.putPoint(buf, this);
+        Wire.write(file, buf.flip());
+    }
+
+    public static Point readPublicKey(File file) throws FileNotFoundException, IOException, ClassNotFoundException {
+        try (FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (Wire.isLegacy(in)) {
+                return Wire.readLegacy(in, Point.class);
+            }
+            return readPublicKey(in);
+        }
+    }
+
+    static Point readPublicKey(ReadableByteChannel in) throws IOException {
+        Wire.readHeader(in, Wire.PUBLIC_KEY);
+        return Wire.getPoint(Wire.readFully(in, Wire.POINT_LENGTH));
+    }
+
+    /**
+     * Compute a square root of v mod p with a specified least significant bit, if
+     * such a root exists.
+     *
+     * @param v   the radicand.
+     * @param p   the modulus (must satisfy p mod 4 = 3).
+     * @param lsb desired least significant bit (true: 1, false: 0).
+     * @return a square root r of v mod p with r mod 2 = 1 iff lsb = true
+     *         if such a root exists, otherwise null.
+     */
+    public BigInteger sqrt(BigInteger v, BigInteger p, boolean lsb) {
+        assert (p.testBit(0) && p.testBit(1)); // p = 3 (mod 4)
+        if (v.signum() == 0) {
+            return BigInteger.ZERO;
+        }
+        BigInteger r = v.modPow(p.shiftRight(2).add(BigInteger.ONE), p);
+        if (r.testBit(0) != lsb) {
+            r = p.subtract(r); // correct the lsb
+        }
+        return (r.multiply(r).subtract(v).mod(p).signum() == 0) ? r : null;
+    }
+
+}
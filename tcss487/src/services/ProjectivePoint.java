@@ -0,0 +1,188 @@
+package services;
+
+import java.math.BigInteger;
+
+/**
+ * A point on the Edwards curve x^2 + y^2 = 1 + d x^2 y^2 in projective
+ * coordinates (X : Y : Z), standing for the affine point (X/Z, Y/Z). Addition
+ * and doubling need no inversions, so a scalar multiplication only inverts once,
+ * when the result is converted back to a Point. The coordinates are Fp521
+ * elements updated in place, using temporaries owned by the point, so the
+ * scalar multiplication loop allocates nothing.
+ */
+class ProjectivePoint {
+
+    // d = -376014, so d * x is computed as -(376014 * x)
+    private static final int D_NEG = 376014;
+
+    final Fp521 X = new Fp521(), Y = new Fp521(), Z = new Fp521();
+
+    private final Fp521 A = new Fp521(), B = new Fp521(), C = new Fp521(), D = new Fp521(),
+            E = new Fp521(), F = new Fp521(), G = new Fp521(), H = new Fp521();
+
+    ProjectivePoint(Point P) {
+        X.set(P.x);
+        Y.set(P.y);
+        Z.set(BigInteger.ONE);
+    }
+
+    ProjectivePoint(ProjectivePoint P) {
+        set(P);
+    }
+
+    ProjectivePoint set(ProjectivePoint P) {
+        X.set(P.X);
+        Y.set(P.Y);
+        Z.set(P.Z);
+        return this;
+    }
+
+    /**
+     * this = -this
+     */
+    ProjectivePoint negate() {
+        X.neg(X);
+        return this;
+    }
+
+    /**
+     * this = this - Q, negating Q only for the duration of the addition
+     */
+    ProjectivePoint sub(ProjectivePoint Q) {
+        Q.negate();
+        add(Q);
+        Q.negate();
+        return this;
+    }
+
+    /**
+     * Swap this and Q if bit is 1, leave both unchanged if it is 0, without
+     * branching on bit
+     */
+    void cswap(ProjectivePoint Q, long bit) {
+        X.cswap(Q.X, bit);
+        Y.cswap(Q.Y, bit);
+        Z.cswap(Q.Z, bit);
+    }
+
+    /**
+     * this = this + Q with the unified addition (add-2007-bl), also valid for
+     * doubling since d is not a square mod p
+     */
+    ProjectivePoint add(ProjectivePoint Q) {
+        A.mul(Z, Q.Z);
+        B.sqr(A);
+        C.mul(X, Q.X);
+        D.mul(Y, Q.Y);
+        E.mul(C, D).mul(E, D_NEG); // E = -d C D
+        F.add(B, E);
+        G.sub(B, E);
+        H.add(X, Y).mul(H, E.add(Q.X, Q.Y)).sub(H, C).sub(H, D);
+
+        X.mul(A, F).mul(X, H);
+        Y.sub(D, C).mul(Y, G).mul(Y, A);
+        Z.mul(F, G);
+        return this;
+    }
+
+    /**
+     * this = this + (x2, y2) for an affine point (Z2 = 1), saving one
+     * multiplication over add
+     */
+    ProjectivePoint addAffine(Fp521 x2, Fp521 y2) {
+        B.sqr(Z);
+        C.mul(X, x2);
+        D.mul(Y, y2);
+        E.mul(C, D).mul(E, D_NEG); // E = -d C D
+        F.add(B, E);
+        G.sub(B, E);
+        H.add(X, Y).mul(H, E.add(x2, y2)).sub(H, C).sub(H, D);
+
+        X.mul(Z, F).mul(X, H);
+        Y.sub(D, C).mul(Y, G).mul(Y, Z);
+        Z.mul(F, G);
+        return this;
+    }
+
+    /**
+     * this = 2 * this with the dedicated doubling (dbl-2007-bl)
+     */
+    ProjectivePoint dbl() {
+        B.add(X, Y).sqr(B);
+        C.sqr(X);
+        D.sqr(Y);
+        E.add(C, D);
+        H.sqr(Z);
+        H.add(H, H).sub(E, H); // J = E - 2 Z^2
+
+        X.sub(B, E).mul(X, H);
+        Y.sub(C, D).mul(Y, E);
+        Z.mul(E, H);
+        return this;
+    }
+
+    /**
+     * @return the affine point (X/Z, Y/Z)
+     */
+    Point toAffine() {
+        BigInteger zInv = Z.toBigInteger().modInverse(Fp521.P);
+        return new Point(X.toBigInteger().multiply(zInv).mod(Fp521.P), Y.toBigInteger().multiply(zInv).mod(Fp521.P));
+    }
+
+    /**
+     * @return the affine forms of all points, computed with a single inversion
+     */
+    static Point[] toAffine(ProjectivePoint[] points) {
+        int n = points.length;
+        Fp521[] x = new Fp521[n], y = new Fp521[n], z = new Fp521[n];
+        for (int i = 0; i < n; i++) {
+            x[i] = new Fp521().set(points[i].X);
+            y[i] = new Fp521().set(points[i].Y);
+            z[i] = points[i].Z;
+        }
+        normalize(x, y, z);
+        Point[] affine = new Point[n];
+        for (int i = 0; i < n; i++) {
+            affine[i] = new Point(x[i].toBigInteger(), y[i].toBigInteger());
+        }
+        return affine;
+    }
+
+    /**
+     * (x[i], y[i]) = (x[i] / z[i], y[i] / z[i]) for every i with a single
+     * inversion and about 3 multiplications per element (Montgomery's trick)
+     */
+    static void normalize(Fp521[] x, Fp521[] y, Fp521[] z) {
+        int n = z.length;
+        if (n == 0) {
+            return;
+        }
+        // prefix[e] is the product of the first e + 1 Z values
+        Fp521[] prefix = new Fp521[n];
+        prefix[0] = new Fp521().set(z[0]);
+        for (int e = 1; e < n; e++) {
+            prefix[e] = new Fp521().mul(prefix[e - 1], z[e]);
+        }
+        Fp521 inv = new Fp521().inv(prefix[n - 1]), zInv = new Fp521();
+        for (int e = n - 1; e >= 0; e--) {
+            if (e > 0) {
+                zInv.mul(inv, prefix[e - 1]);
+                inv.mul(inv, z[e]);
+            } else {
+                zInv.set(inv);
+            }
+            x[e].mul(x[e], zInv);
+            y[e].mul(y[e], zInv);
+        }
+    }
+
+    /**
+     * @return the affine point (X/Z, Y/Z), inverting Z by a fixed exponentiation
+     */
+    Point toAffineConstantTime() {
+        A.invConstantTime(Z);
+        B.mul(X, A);
+        C.mul(Y, A);
+        return new Point(B.toBigInteger(), C.toBigInteger());
+    }
+}
@@ -1,12 +1,22 @@
 package services;
 
-import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.security.SecureRandom;
 import java.util.Arrays;
 
+import services.events.CryptogramEvent;
 import services.kmac.KECCAK;
+import services.kmac.Kmac256;
+import services.kmac.Xor;
+import services.metrics.Metrics;
 
 /**
  * Encrypt/Decrypt a file symmetrically using a passphrase.
@@ -16,10 +26,97 @@ public class SymmetricCryptogram implements IService {
     private final String service = "Encrypt/Decrypt a file symmetrically using a passphrase.";
     public final String name = "symm";
 
-    public void encrypt(String path, byte[] m, byte[] pw) {
+    private static final int CHUNK_SIZE = 1 << 16;
+    static final int Z_LENGTH = 64;
+    static final int T_LENGTH = 64;
+
+    public boolean encrypt(String path, byte[] pw) {
+        String dest = getDefaultDestination(path, "symm-encrypted");
+        try {
+            encrypt(Path.of(path), Path.of(dest), pw);
+            printSuccessfulEncryption(dest);
+            return true;
+        } catch (IOException e) {
+            help();
+            return false;
+        }
+    }
+
+    public boolean decrypt(String path, byte[] pw) {
+        Path dest = Path.of(getDefaultDestination(path, "symdec"));
+        try {
+            if (decrypt(Path.of(path), dest, pw)) {
+                printSuccessfulDecryption(dest.toString());
+                return true;
+            }
+            System.out.println("\nIncorrect password! \n");
+            help();
+        } catch (IOException e) {
+            help();
+        }
+        return false;
+    }
+
+    // symm -e -r / -d -r: every file below a directory, decrypting only the
+    // files a batch encryption wrote
+    private boolean batch(String type, String dir, byte[] pw, int parallelism) throws IOException {
+        BatchPipeline pipeline = new BatchPipeline(parallelism);
+        if (type.equals("-e")) {
+            return pipeline.run(Path.of(dir), BatchPipeline.notOutput("symm-encrypted"),
+                    src -> encrypt(src, Path.of(getDefaultDestination(src.toString(), "symm-encrypted")), pw));
+        } else {
+            return pipeline.run(Path.of(dir), p -> p.getFileName().toString().endsWith("-symm-encrypted.txt"), src -> {
+                if (!decrypt(src, Path.of(getDefaultDestination(src.toString(), "symdec")), pw)) {
+                    throw new IOException("incorrect password or corrupted cryptogram");
+                }
+            });
+        }
+    }
+
+    private void encrypt(Path src, Path dest, byte[] pw) throws IOException {
+        try (FileChannel in = FileChannel.open(src, StandardOpenOption.READ);
+                FileChannel out = FileChannel.open(dest, StandardOpenOption.CREATE,
+                        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            encrypt(in, out, pw);
+        }
+    }
+
+    // the plaintext only replaces dest once its tag has been checked
+    private boolean decrypt(Path src, Path dest, byte[] pw) throws IOException {
+        Path part = dest.resolveSibling(dest.getFileName() + ".part");
+        try {
+            boolean valid;
+            try (FileChannel in = FileChannel.open(src, StandardOpenOption.READ);
+                    FileChannel out = FileChannel.open(part, StandardOpenOption.CREATE,
+                            StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                valid = decrypt(in, out, pw);
+            }
+            if (valid) {
+                Files.move(part, dest, StandardCopyOption.REPLACE_EXISTING);
+            }
+            return valid;
+        } finally {
+            Files.deleteIfExists(part);
+        }
+    }
+
+    /**
+     * Encrypts everything left in a channel under a passphrase, writing z || c || t
+     * to the output one chunk at a time.
+     *
+     * @param in  channel holding the plaintext m
+     * @param out channel the cryptogram is written to
+     * @param pw  the passphrase
+     * @return the length of the plaintext
+     * @throws IOException if reading or writing fails
+     */
+    public long encrypt(ReadableByteChannel in, WritableByteChannel out, byte[] pw) throws IOException {
+        long start = Metrics.ENABLED ? System.nanoTime() : 0;
+        CryptogramEvent event = new CryptogramEvent();
+        event.begin();
         // store 512 bits / 64 bytes of random data
         SecureRandom rand = new SecureRandom();
-        byte[] z = new byte[64];
+        byte[] z = new byte[Z_LENGTH];
         rand.nextBytes(z);
 
         // calc ke || ka and separate them
@@ -27,60 +124,174 @@ public class SymmetricCryptogram implements IService {
         byte[] ke = Arrays.copyOfRange(ke_ka, 0, ke_ka.length / 2);
         byte[] ka = Arrays.copyOfRange(ke_ka, ke_ka.length / 2, ke_ka.length);
 
-        // calc c and xor w/ m
-        byte[] c = KECCAK.KMACXOF256(ke, "".getBytes(), m.length * 8, "SKE".getBytes());
-        for (int i = 0; i < c.length; i++)
-            c[i] ^= m[i];
+        Kmac256 keystream = new Kmac256(ke, "SKE".getBytes());
+        Kmac256 tag = new Kmac256(ka, "SKA".getBytes());
 
-        // calc t
-        byte[] t = KECCAK.KMACXOF256(ka, m, 512, "SKA".getBytes());
+        writeFully(out, ByteBuffer.wrap(z));
 
-        // combine z, c, t
-        byte[] result = KECCAK.concat_arrays(z, c);
-        result = KECCAK.concat_arrays(result, t);
+        // c = KMACXOF256(ke, "", |m|, "SKE") XOR m, t = KMACXOF256(ka, m, 512, "SKA")
+        long n = encryptStream(in, out, keystream, tag);
+        if (Metrics.ENABLED)
+            Metrics.SYMM_ENCRYPT.record(start, n, Z_LENGTH + n + T_LENGTH);
+        commit(event, "encrypt", n, true);
+        return n;
+    }
 
-        try {
-            String dest = getDefaultDestination(path, "symm-encrypted");
-            File file = new File(dest);
-            write(file, result);
-            printSuccessfulDecryption(dest);
-        } catch (IOException e) {
-            help();
+    /**
+     * Encrypt the rest of in with a KMAC keystream and append the tag of the
+     * plaintext, in one pass and constant memory
+     *
+     * @return the length of the plaintext
+     */
+    static long encryptStream(ReadableByteChannel in, WritableByteChannel out, Kmac256 keystream, Kmac256 tag)
+            throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(CHUNK_SIZE);
+        byte[] m = buf.array();
+        byte[] ks = new byte[CHUNK_SIZE];
+        long total = 0;
+        while (in.read(buf) != -1) {
+            int n = buf.position();
+            total += n;
+            tag.update(m, 0, n);
+            keystream.squeeze(ks, 0, n);
+            Xor.xor(m, 0, ks, 0, n);
+
+            buf.flip();
+            writeFully(out, buf);
+            buf.clear();
         }
+
+        writeFully(out, ByteBuffer.wrap(tag.squeeze(T_LENGTH)));
+        return total;
     }
 
-    public void decrypt(String path, byte[] zct, byte[] pw) {
-        int length = 64;
-        byte[] z = Arrays.copyOfRange(zct, 0, length);
-        byte[] c = Arrays.copyOfRange(zct, length, zct.length - length);
-        byte[] t = Arrays.copyOfRange(zct, zct.length - length, zct.length);
+    /**
+     * Decrypts a z || c || t cryptogram read from a channel, writing the plaintext
+     * to the output one chunk at a time. The plaintext is written before the tag
+     * can be checked, so callers must discard the output when this returns false.
+     *
+     * @param in  channel holding the cryptogram
+     * @param out channel the plaintext m is written to
+     * @param pw  the passphrase
+     * @return whether the cryptogram's tag matched
+     * @throws IOException if reading or writing fails
+     */
+    public boolean decrypt(ReadableByteChannel in, WritableByteChannel out, byte[] pw) throws IOException {
+        return decryptLength(in, out, pw) >= 0;
+    }
+
+    // decrypt, returning the length of the plaintext or -1 if the tag does not
+    // match
+    long decryptLength(ReadableByteChannel in, WritableByteChannel out, byte[] pw) throws IOException {
+        long start = Metrics.ENABLED ? System.nanoTime() : 0;
+        CryptogramEvent event = new CryptogramEvent();
+        event.begin();
+        ByteBuffer zbuf = ByteBuffer.allocate(Z_LENGTH);
+        while (zbuf.hasRemaining() && in.read(zbuf) != -1)
+            ;
+        if (zbuf.hasRemaining()) {
+            if (Metrics.ENABLED)
+                Metrics.SYMM_DECRYPT.recordFailure(start);
+            commit(event, "decrypt", 0, false);
+            return -1;
+        }
+        byte[] z = zbuf.array();
 
         // calc ke || ka and separate them
         byte[] ke_ka = KECCAK.KMACXOF256(KECCAK.concat_arrays(z, pw), "".getBytes(), 1024, "S".getBytes());
         byte[] ke = Arrays.copyOfRange(ke_ka, 0, ke_ka.length / 2);
         byte[] ka = Arrays.copyOfRange(ke_ka, ke_ka.length / 2, ke_ka.length);
 
-        // calculate m
-        byte[] m = KECCAK.KMACXOF256(ke, "".getBytes(), c.length * 8, "SKE".getBytes());
-        for (int i = 0; i < m.length; i++)
-            m[i] ^= c[i];
+        Kmac256 keystream = new Kmac256(ke, "SKE".getBytes());
+        Kmac256 tag = new Kmac256(ka, "SKA".getBytes());
+
+        // m = KMACXOF256(ke, "", |c|, "SKE") XOR c
+        long n = decryptStream(in, out, keystream, tag);
+        if (Metrics.ENABLED && n >= 0)
+            Metrics.SYMM_DECRYPT.record(start, Z_LENGTH + n + T_LENGTH, n);
+        else if (Metrics.ENABLED)
+            Metrics.SYMM_DECRYPT.recordFailure(start);
+        commit(event, "decrypt", Math.max(n, 0), n >= 0);
+        return n;
+    }
 
-        byte[] t_prime = KECCAK.KMACXOF256(ka, m, 512, "SKA".getBytes());
+    /**
+     * Inverse of encryptStream: decrypt the rest of in, whose last T_LENGTH bytes
+     * are the tag
+     *
+     * @return the length of the plaintext, or -1 if the tag does not match it
+     */
+    static long decryptStream(ReadableByteChannel in, WritableByteChannel out, Kmac256 keystream, Kmac256 tag)
+            throws IOException {
+        // the last T_LENGTH bytes read so far might be t, so they stay in the buffer
+        // until more data arrives
+        ByteBuffer buf = ByteBuffer.allocate(CHUNK_SIZE + T_LENGTH);
+        byte[] c = buf.array();
+        byte[] ks = new byte[CHUNK_SIZE];
+        long total = 0;
+        while (in.read(buf) != -1) {
+            int n = buf.position() - T_LENGTH;
+            if (n <= 0)
+                continue;
+            total += n;
 
-        try {
-            if (Arrays.equals(t, t_prime)) {
-                String dest = getDefaultDestination(path, "symdec");
-                File file = new File(dest);
-
-                write(file, m);
-                printSuccessfulEncryption(dest);
-            } else {
-                System.out.println("\nIncorrect password! \n");
-                help();
+            keystream.squeeze(ks, 0, n);
+            Xor.xor(c, 0, ks, 0, n);
+            tag.update(c, 0, n);
+            writeFully(out, ByteBuffer.wrap(c, 0, n));
+
+            System.arraycopy(c, n, c, 0, T_LENGTH);
+            buf.position(T_LENGTH);
+        }
+        if (buf.position() < T_LENGTH)
+            return -1;
+
+        byte[] t = Arrays.copyOf(c, T_LENGTH);
+        byte[] t_prime = tag.squeeze(T_LENGTH);
+        return Arrays.equals(t, t_prime) ? total : -1;
+    }
+
+    private static void commit(CryptogramEvent event, String operation, long bytes, boolean valid) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.scheme = "symm";
+            event.operation = operation;
+            event.bytes = bytes;
+            event.valid = valid;
+            event.commit();
+        }
+    }
+
+    private static void writeFully(WritableByteChannel out, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining())
+            out.write(buf);
+    }
+
+    @Override
+    public boolean isStream(String[] cmds) {
+        return cmds.length > 2 && cmds[2].equals("-");
+    }
+
+    @Override
+    public boolean parseStream(String[] cmds, ReadableByteChannel in, WritableByteChannel out) throws IOException {
+        // symm -e - [passphrase] / symm -d - [passphrase]
+        if (cmds.length != 4 || !cmds[2].equals("-")) {
+            System.err.println("usage: symm ['-e' || '-d'] - [passphrase]");
+            return false;
+        }
+        byte[] pw = cmds[3].getBytes();
+        if (cmds[1].equals("-e")) {
+            encrypt(in, out, pw);
+            return true;
+        } else if (cmds[1].equals("-d")) {
+            if (!decrypt(in, out, pw)) {
+                System.err.println("Incorrect password or corrupted cryptogram");
+                return false;
             }
-        } catch (IOException e) {
-            help();
+            return true;
         }
+        System.err.println("usage: symm ['-e' || '-d'] - [passphrase]");
+        return false;
     }
 
     public void printSuccessfulEncryption(String encryptionLocation) {
@@ -106,7 +317,8 @@ public class SymmetricCryptogram implements IService {
         StringBuilder sb = new StringBuilder();
         // Header
         sb.append(commandColor + "\n" + name + mainColor + " - " + service + "\n\n" + separator + CYAN
-                + " usage: symm ['-e' -> encrypt || '-d' -> decrypt] [file-path] [passphrase]" + "\n\n");
+                + " usage: symm ['-e' -> encrypt || '-d' -> decrypt] ['-r' -> recursive] [file-path] [passphrase] ['-j' threads]"
+                + "\n\n");
         // Example 1
         sb.append(
                 mainColor
@@ -117,7 +329,12 @@ public class SymmetricCryptogram implements IService {
                 mainColor
                         + separator + RED + " Example 1 [Decryption]:\n" + reset + separator
                         + " symm -d C:/Users/Benjamin/Documents/message-symm-encrypted.txt 1234\n\n" + separator
-                        + " the file is automatically decrypted using passphrase '1234' as \"[message_name]-symm-decrypted.txt\"\n");
+                        + " the file is automatically decrypted using passphrase '1234' as \"[message_name]-symm-decrypted.txt\"\n\n");
+        sb.append(
+                mainColor
+                        + separator + RED + " Example [Recursive]:\n" + reset + separator
+                        + " symm -e -r C:/Users/Benjamin/Documents 1234 -j 8\n\n" + separator
+                        + " every file below the directory is encrypted on 8 threads; '-d -r' decrypts the \"-symm-encrypted.txt\" files\n");
         // Reset Console Color
         sb.append(reset);
         System.out.println(sb.toString());
@@ -128,32 +345,42 @@ public class SymmetricCryptogram implements IService {
     }
 
     @Override
-    public void parse(String[] cmds) {
+    public boolean parse(String[] cmds) {
+        if (cmds.length >= 5 && cmds[2].equals("-r")) {
+            try {
+                String[] args = BatchPipeline.withoutParallelism(cmds);
+                if (args.length != 5 || !(args[1].equals("-e") || args[1].equals("-d"))) {
+                    help();
+                    return false;
+                }
+                return batch(args[1], args[3], args[4].getBytes(), BatchPipeline.parallelism(cmds));
+            } catch (Exception e) {
+                help();
+                return false;
+            }
+        }
         if (cmds.length != 4) {
             help();
-            return;
+            return false;
         }
 
         try {
             String type = cmds[1];
 
             String path = cmds[2];
-            File file = new File(path);
 
             byte[] pw = cmds[3].getBytes();
-            byte[] m = Files.readAllBytes(file.toPath());
 
             if (type.equals("encrypt") || type.equals("e") || type.equals("-e")) {
-                encrypt(path, m, pw);
+                return encrypt(path, pw);
             } else if (type.equals("decrypt") || type.equals("d") || type.equals("-d")) {
-                decrypt(path, m, pw);
-            } else {
-                help();
+                return decrypt(path, pw);
             }
+            help();
         } catch (Exception e) {
             help();
         }
-
+        return false;
     }
 
 }
\ No newline at end of file
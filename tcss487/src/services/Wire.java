@@ -0,0 +1,182 @@
+package services;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputFilter;
+import java.io.ObjectInputStream;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Binary layout of public keys, cryptograms, signatures and recipient headers:
+ * a version byte and a type byte, then fixed-size or length-prefixed (4-byte
+ * big-endian) fields. Points are compressed to 66 bytes, x big-endian with the
+ * least significant bit of y in the top bit, and are decompressed with
+ * Point(x, lsb). A streamed cryptogram is Z followed by c and a 64-byte t
+ * trailer, so it can be written and read in one pass. Files written with Java
+ * serialization (starting with 0xACED) are still read.
+ *
+ * Signatures are written with SIGNATURE_VERSION, as they are computed with the
+ * exact scalar multiplication; version 1 signatures are still read (see
+ * EllipticCurve.generateSignature).
+ */
+class Wire {
+
+    static final byte VERSION = 1;
+    static final byte SIGNATURE_VERSION = 2;
+
+    static final byte PUBLIC_KEY = 1;
+    static final byte CRYPTOGRAM = 2;
+    static final byte SIGNATURE = 3;
+    static final byte RECIPIENT_HEADER = 4;
+    static final byte STREAM_CRYPTOGRAM = 5;
+
+    static final int POINT_LENGTH = 66;
+
+    // bound on any length-prefixed field or count read back
+    static final int MAX_FIELD_LENGTH = 1 << 24;
+
+    private static final int LEGACY_MAGIC = 0xACED;
+
+    // the classes serialized files were written with, and nothing else
+    private static final ObjectInputFilter LEGACY_FILTER = ObjectInputFilter.Config.createFilter(
+            "maxdepth=5;maxrefs=64;maxarray=" + MAX_FIELD_LENGTH + ";services.Point;services.Cryptogram;"
+                    + "services.Signature;java.math.BigInteger;java.lang.Number;!*");
+
+    /**
+     * @return a buffer holding the version and type bytes, with room for length
+     *         more bytes
+     */
+    static ByteBuffer header(byte type, int length) {
+        return header(VERSION, type, length);
+    }
+
+    static ByteBuffer header(byte version, byte type, int length) {
+        return ByteBuffer.allocate(2 + length).put(version).put(type);
+    }
+
+    /**
+     * Check the version and type bytes at the current position
+     */
+    static void readHeader(ReadableByteChannel in, byte type) throws IOException {
+        readHeader(in, type, VERSION);
+    }
+
+    /**
+     * Check the type byte at the current position and return the version byte,
+     * which may be anything from VERSION to max
+     */
+    static byte readHeader(ReadableByteChannel in, byte type, byte max) throws IOException {
+        ByteBuffer buf = readFully(in, 2);
+        byte version = buf.get();
+        if (version < VERSION || version > max || buf.get() != type) {
+            throw new IOException("unsupported format");
+        }
+        return version;
+    }
+
+    /**
+     * @return whether the file is a Java serialization stream (the position is
+     *         not moved)
+     */
+    static boolean isLegacy(FileChannel in) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(2);
+        in.read(buf, 0);
+        return buf.position() == 2 && (buf.getShort(0) & 0xFFFF) == LEGACY_MAGIC;
+    }
+
+    /**
+     * @return the type byte of a file in this format, or -1 if it has none
+     */
+    static byte peekType(File file) throws IOException {
+        try (FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer buf = ByteBuffer.allocate(2);
+            in.read(buf, 0);
+            return buf.position() == 2 && buf.get(0) == VERSION ? buf.get(1) : -1;
+        }
+    }
+
+    /**
+     * Read a serialized public key, cryptogram or signature of the given type.
+     * Any other class, and arrays longer than MAX_FIELD_LENGTH, are rejected
+     * before they are created.
+     */
+    static <T> T readLegacy(FileChannel in, Class<T> type) throws IOException, ClassNotFoundException {
+        in.position(0);
+        ObjectInputStream objects = new ObjectInputStream(Channels.newInputStream(in));
+        objects.setObjectInputFilter(LEGACY_FILTER);
+        Object o = objects.readObject();
+        if (!type.isInstance(o)) {
+            throw new IOException("unsupported format");
+        }
+        return type.cast(o);
+    }
+
+    static void putPoint(ByteBuffer buf, Point P) {
+        byte[] x = P.x.mod(Point.prime).toByteArray();
+        byte[] out = new byte[POINT_LENGTH];
+        int n = Math.min(x.length, POINT_LENGTH);
+        System.arraycopy(x, x.length - n, out, POINT_LENGTH - n, n);
+        if (P.y.mod(Point.prime).testBit(0)) {
+            out[0] |= (byte) 0x80;
+        }
+        buf.put(out);
+    }
+
+    static Point getPoint(ByteBuffer buf) throws IOException {
+        byte[] x = new byte[POINT_LENGTH];
+        buf.get(x);
+        boolean lsb = (x[0] & 0x80) != 0;
+        x[0] &= 0x7F;
+        BigInteger px = new BigInteger(1, x);
+        if (px.compareTo(Point.prime) >= 0) {
+            throw new IOException("invalid point");
+        }
+        Point P = new Point(px, lsb);
+        if (P.y == null) {
+            throw new IOException("invalid point");
+        }
+        return P;
+    }
+
+    static void putBytes(ByteBuffer buf, byte[] b) {
+        buf.putInt(b.length).put(b);
+    }
+
+    static byte[] readBytes(ReadableByteChannel in, int max) throws IOException {
+        int n = readFully(in, 4).getInt();
+        if (n < 0 || n > max) {
+            throw new IOException("invalid field length");
+        }
+        return readFully(in, n).array();
+    }
+
+    static ByteBuffer readFully(ReadableByteChannel in, int n) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(n);
+        while (buf.hasRemaining()) {
+            if (in.read(buf) == -1) {
+                throw new EOFException();
+            }
+        }
+        return buf.flip();
+    }
+
+    static void writeFully(WritableByteChannel out, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            out.write(buf);
+        }
+    }
+
+    static void write(File file, ByteBuffer buf) throws IOException {
+        try (FileChannel out = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            writeFully(out, buf);
+        }
+    }
+}
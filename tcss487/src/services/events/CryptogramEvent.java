@@ -0,0 +1,40 @@
+package services.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * Symmetric (symm), elliptic curve (ec) or multi-recipient (ec-multi)
+ * encryption or decryption
+ */
+@Name("tcss487.Cryptogram")
+@Label("Cryptogram")
+@Category({ "TCSS487", "Encryption" })
+@Description("Symmetric (symm), elliptic curve (ec) or multi-recipient (ec-multi) encryption or decryption")
+@Threshold("1 ms")
+@StackTrace(false)
+public final class CryptogramEvent extends Event {
+
+    @Label("Scheme")
+    @Description("symm, ec or ec-multi")
+    public String scheme;
+
+    @Label("Operation")
+    @Description("encrypt or decrypt")
+    public String operation;
+
+    @Label("Bytes")
+    @Description("Length of the plaintext")
+    @DataAmount
+    public long bytes;
+
+    @Label("Valid")
+    @Description("Whether the tag matched, always true for encryption")
+    public boolean valid;
+}
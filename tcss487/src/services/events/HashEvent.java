@@ -0,0 +1,33 @@
+package services.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * KMACXOF256 hash of a message (kmac)
+ */
+@Name("tcss487.Hash")
+@Label("Hash")
+@Category({ "TCSS487", "KMAC" })
+@Description("KMACXOF256 hash of a message (kmac)")
+@Threshold("1 ms")
+@StackTrace(false)
+public final class HashEvent extends Event {
+
+    @Label("Bytes")
+    @DataAmount
+    public long bytes;
+
+    @Label("Output Length")
+    @DataAmount
+    public int outputLength;
+
+    @Label("Customization")
+    public String customization;
+}
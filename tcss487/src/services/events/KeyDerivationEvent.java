@@ -0,0 +1,29 @@
+package services.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * KMACXOF256 derivation of an elliptic curve key: the private scalar from a passphrase (K) or ke || ka from a shared point (P)
+ */
+@Name("tcss487.KeyDerivation")
+@Label("EC Key Derivation")
+@Category({ "TCSS487", "Elliptic Curve" })
+@Description("KMACXOF256 derivation of an elliptic curve key: the private scalar from a passphrase (K) or ke || ka from a shared point (P)")
+@Threshold("1 ms")
+@StackTrace(false)
+public final class KeyDerivationEvent extends Event {
+
+    @Label("Customization")
+    public String customization;
+
+    @Label("Output Length")
+    @DataAmount
+    public int outputLength;
+}
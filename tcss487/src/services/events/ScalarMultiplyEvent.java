@@ -0,0 +1,28 @@
+package services.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * Multiplication of a point on E521 by a scalar
+ */
+@Name("tcss487.ScalarMultiply")
+@Label("Scalar Multiplication")
+@Category({ "TCSS487", "Elliptic Curve" })
+@Description("Multiplication of a point on E521 by a scalar")
+@Threshold("1 ms")
+@StackTrace(false)
+public final class ScalarMultiplyEvent extends Event {
+
+    @Label("Method")
+    @Description("fixed-base, wNAF, ladder or Straus")
+    public String method;
+
+    @Label("Scalar Bits")
+    public int scalarBits;
+}
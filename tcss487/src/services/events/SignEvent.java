@@ -0,0 +1,26 @@
+package services.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * Schnorr signature of a message (ec -s)
+ */
+@Name("tcss487.Sign")
+@Label("Sign")
+@Category({ "TCSS487", "Elliptic Curve" })
+@Description("Schnorr signature of a message (ec -s)")
+@Threshold("1 ms")
+@StackTrace(false)
+public final class SignEvent extends Event {
+
+    @Label("Bytes")
+    @DataAmount
+    public long bytes;
+}
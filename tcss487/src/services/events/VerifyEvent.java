@@ -0,0 +1,29 @@
+package services.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * Schnorr signature verification (ec -v)
+ */
+@Name("tcss487.Verify")
+@Label("Verify")
+@Category({ "TCSS487", "Elliptic Curve" })
+@Description("Schnorr signature verification (ec -v)")
+@Threshold("1 ms")
+@StackTrace(false)
+public final class VerifyEvent extends Event {
+
+    @Label("Bytes")
+    @DataAmount
+    public long bytes;
+
+    @Label("Valid")
+    public boolean valid;
+}
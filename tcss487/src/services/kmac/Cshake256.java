@@ -0,0 +1,198 @@
+package services.kmac;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Incremental cSHAKE256. Data is absorbed in chunks through update() and the
+ * output is squeezed as many times as needed, so a message never has to be held
+ * in memory as a whole.
+ */
+public class Cshake256 {
+
+    private static final int CHANNEL_BUFFER_SIZE = 1 << 20;
+
+    // reused for every channel read on a thread, so streaming never grows the heap
+    private static final ThreadLocal<ByteBuffer> CHANNEL_BUFFER = ThreadLocal
+            .withInitial(() -> ByteBuffer.allocateDirect(CHANNEL_BUFFER_SIZE));
+
+    private final KECCAK sponge;
+
+    // lanes right after the (N, S) prefix, used by reset()
+    private final long[] initial;
+
+    private boolean squeezing;
+
+    /**
+     * Initialize a cSHAKE256 sponge for the given function name and
+     * customization string
+     * 
+     * @param N function name
+     * @param S customization string
+     */
+    public Cshake256(byte[] N, byte[] S) {
+        this(N, S, null, false);
+    }
+
+    /**
+     * Initialize a cSHAKE256 sponge and absorb a block-aligned prefix (e.g. the
+     * bytepadded KMAC key) that is kept across reset(). The state after
+     * bytepad(encode_string(N) || encode_string(S), 136) always comes from
+     * PrefixCache; the state after the extra prefix does too if cachePrefix is
+     * set.
+     * 
+     * @param N           function name
+     * @param S           customization string
+     * @param prefix      bytes absorbed after bytepad(encode_string(N) ||
+     *                    encode_string(S), 136), may be null
+     * @param cachePrefix whether to cache the state after the extra prefix
+     */
+    Cshake256(byte[] N, byte[] S, byte[] prefix, boolean cachePrefix) {
+        sponge = new KECCAK();
+        sponge.shake256_init();
+
+        // KECCAK[512](bytepad(encode_string(N) || encode_string(S), 136) || X || 00, L)
+        byte[] arg = KECCAK.bytepad(KECCAK.concat_arrays(KECCAK.encode_string(N), KECCAK.encode_string(S)), 136);
+        if (prefix != null && cachePrefix) {
+            sponge.load_state(PrefixCache.lanes(KECCAK.concat_arrays(arg, prefix), true));
+            prefix = null;
+        } else {
+            sponge.load_state(PrefixCache.lanes(arg, false));
+        }
+        if (prefix != null)
+            sponge.sha3_update(prefix, 0, prefix.length);
+
+        initial = sponge.copy_state();
+    }
+
+    /**
+     * Absorb more of the message
+     * 
+     * @param data the message bytes
+     * @return this hasher
+     */
+    public Cshake256 update(byte[] data) {
+        return update(data, 0, data.length);
+    }
+
+    /**
+     * Absorb more of the message
+     * 
+     * @param data the message bytes
+     * @param off  offset of the first byte to absorb
+     * @param len  number of bytes to absorb
+     * @return this hasher
+     */
+    public Cshake256 update(byte[] data, int off, int len) {
+        if (off < 0 || len < 0 || off > data.length - len)
+            throw new IndexOutOfBoundsException();
+        checkAbsorbing();
+        sponge.sha3_update(data, off, len);
+        return this;
+    }
+
+    /**
+     * Absorb the remaining bytes of a buffer, advancing its position to its limit
+     * 
+     * @param data the message bytes
+     * @return this hasher
+     */
+    public Cshake256 update(ByteBuffer data) {
+        checkAbsorbing();
+        sponge.sha3_update(data);
+        return this;
+    }
+
+    /**
+     * Absorb everything left in a channel, reading it through a reusable direct
+     * buffer
+     * 
+     * @param in the channel to read until end of stream
+     * @return number of bytes absorbed
+     * @throws IOException if reading the channel fails
+     */
+    public long updateFrom(ReadableByteChannel in) throws IOException {
+        checkAbsorbing();
+        ByteBuffer buffer = CHANNEL_BUFFER.get();
+        long total = 0;
+        buffer.clear();
+        while (in.read(buffer) != -1) {
+            buffer.flip();
+            total += buffer.remaining();
+            sponge.sha3_update(buffer);
+            buffer.clear();
+        }
+        return total;
+    }
+
+    /**
+     * Pad the message and switch the sponge to squeezing. Called implicitly by
+     * the first squeeze.
+     */
+    public void finish() {
+        checkAbsorbing();
+        sponge.shake_xof((byte) 0x04);
+        squeezing = true;
+    }
+
+    /**
+     * Squeeze the next bytes of output
+     * 
+     * @param out output buffer
+     * @param off offset of the first output byte
+     * @param len number of bytes to squeeze
+     */
+    public void squeeze(byte[] out, int off, int len) {
+        if (off < 0 || len < 0 || off > out.length - len)
+            throw new IndexOutOfBoundsException();
+        if (!squeezing)
+            finish();
+        sponge.shake_out(out, off, len);
+    }
+
+    /**
+     * Squeeze the next bytes of output
+     * 
+     * @param len number of bytes to squeeze
+     * @return the output bytes
+     */
+    public byte[] squeeze(int len) {
+        byte[] out = new byte[len];
+        squeeze(out, 0, len);
+        return out;
+    }
+
+    /**
+     * Return to the state right after initialization so the hasher can be reused
+     * for another message
+     */
+    public void reset() {
+        sponge.load_state(initial);
+        squeezing = false;
+    }
+
+    /**
+     * The lanes right after initialization, shared rather than copied
+     */
+    long[] prefix_state() {
+        return initial;
+    }
+
+    /**
+     * Absorb bytes that are part of the encoding rather than the message
+     */
+    void absorb(byte[] data) {
+        absorb(data, 0, data.length);
+    }
+
+    void absorb(byte[] data, int off, int len) {
+        checkAbsorbing();
+        sponge.sha3_update(data, off, len);
+    }
+
+    private void checkAbsorbing() {
+        if (squeezing)
+            throw new IllegalStateException("cSHAKE256 output has already been squeezed");
+    }
+}
@@ -1,5 +1,14 @@
 package services.kmac;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.List;
+
+import services.metrics.Metrics;
+
 /**
  * Implementation of the Keccak Core Algorithm.
  */
@@ -16,26 +25,42 @@ public class KECCAK {
             0x8000000000008080L, 0x0000000080000001L, 0x8000000080008008L
     };
 
-    private static final int[] KECCAKF_ROTC = {
-            1, 3, 6, 10, 15, 21, 28, 36, 45, 55, 2, 14,
-            27, 41, 56, 8, 25, 43, 62, 18, 39, 61, 20, 44
+    private static final int KECCAKF_ROUNDS = 24;
+
+    // for each lane after rho and pi: the lane it came from and its rotation
+    private static final int[] KECCAKF_PI_SRC = {
+            0, 6, 12, 18, 24, 3, 9, 10, 16, 22, 1, 7, 13,
+            19, 20, 4, 5, 11, 17, 23, 2, 8, 14, 15, 21
     };
 
-    private static final int[] KECCAKF_PILN = {
-            10, 7, 11, 17, 18, 3, 5, 16, 8, 21, 24, 4,
-            15, 23, 19, 13, 12, 2, 20, 14, 22, 9, 6, 1
+    private static final int[] KECCAKF_PI_ROT = {
+            0, 44, 43, 21, 14, 28, 20, 3, 45, 61, 1, 6, 25,
+            8, 18, 27, 36, 10, 15, 56, 62, 55, 39, 41, 2
     };
 
-    private static final int KECCAKF_ROUNDS = 24;
+    /**
+     * number of sponges interleaved by sha3_keccakf_xn
+     */
+    static final int KECCAKF_WAYS = 4;
 
     private static final int SHAKE256_MDLEN = 32;
 
-    private byte[] state;
+    /**
+     * View of a byte array as little-endian 64-bit lanes
+     */
+    private static final VarHandle LANE = MethodHandles.byteArrayViewVarHandle(long[].class,
+            ByteOrder.LITTLE_ENDIAN);
+
+    private static final byte[] KMAC_N = "KMAC".getBytes();
+
+    private static final ThreadLocal<HotPath> HOT_PATH = ThreadLocal.withInitial(HotPath::new);
+
+    private long[] state;
 
     private int rate;
     private int pt;
 
-    private KECCAK() {
+    KECCAK() {
     };
 
     /**
@@ -44,7 +69,7 @@ public class KECCAK {
      * @param mdlen the hash output (bytes)
      */
     private void sha3_init(int mdlen) {
-        state = new byte[200];
+        state = new long[25];
         rate = 200 - 2 * mdlen;
         pt = 0;
     }
@@ -52,134 +77,344 @@ public class KECCAK {
     /**
      * Call sha3_init with the hash output used for SHAKE256
      */
-    private void shake256_init() {
+    void shake256_init() {
         sha3_init(SHAKE256_MDLEN);
     }
 
     /**
-     * keccak compression function
+     * keccak compression function, applied in place to the 25 lanes of the state
      * 
-     * @param state the state array
+     * @param st the state lanes
      */
-    private void sha3_keccakf(byte[] state) {
+    static void sha3_keccakf(long[] st) {
+        if (Metrics.ENABLED) {
+            Metrics.KECCAK_F.increment();
+        }
 
-        long[] lanes = new long[25];
-        long[] planes = new long[5];
+        long a00 = st[0], a01 = st[1], a02 = st[2], a03 = st[3], a04 = st[4];
+        long a05 = st[5], a06 = st[6], a07 = st[7], a08 = st[8], a09 = st[9];
+        long a10 = st[10], a11 = st[11], a12 = st[12], a13 = st[13], a14 = st[14];
+        long a15 = st[15], a16 = st[16], a17 = st[17], a18 = st[18], a19 = st[19];
+        long a20 = st[20], a21 = st[21], a22 = st[22], a23 = st[23], a24 = st[24];
 
-        // map from bytes in 'state' to longs and store in 'lanes'
-        for (int i = 0, j = 0; i < 25; i++, j += 8) {
-            lanes[i] = (((long) state[j + 0] & 0xFFL) << 0) | (((long) state[j + 1] & 0xFFL) << 8) |
-                    (((long) state[j + 2] & 0xFFL) << 16) | (((long) state[j + 3] & 0xFFL) << 24) |
-                    (((long) state[j + 4] & 0xFFL) << 32) | (((long) state[j + 5] & 0xFFL) << 40) |
-                    (((long) state[j + 6] & 0xFFL) << 48) | (((long) state[j + 7] & 0xFFL) << 56);
+        for (int r = 0; r < KECCAKF_ROUNDS; r++) {
+            // theta mapping
+            long c0 = a00 ^ a05 ^ a10 ^ a15 ^ a20;
+            long c1 = a01 ^ a06 ^ a11 ^ a16 ^ a21;
+            long c2 = a02 ^ a07 ^ a12 ^ a17 ^ a22;
+            long c3 = a03 ^ a08 ^ a13 ^ a18 ^ a23;
+            long c4 = a04 ^ a09 ^ a14 ^ a19 ^ a24;
+            long d0 = c4 ^ Long.rotateLeft(c1, 1);
+            long d1 = c0 ^ Long.rotateLeft(c2, 1);
+            long d2 = c1 ^ Long.rotateLeft(c3, 1);
+            long d3 = c2 ^ Long.rotateLeft(c4, 1);
+            long d4 = c3 ^ Long.rotateLeft(c0, 1);
+
+            // rho and pi mapping
+            long b00 = a00 ^ d0;
+            long b01 = Long.rotateLeft(a06 ^ d1, 44);
+            long b02 = Long.rotateLeft(a12 ^ d2, 43);
+            long b03 = Long.rotateLeft(a18 ^ d3, 21);
+            long b04 = Long.rotateLeft(a24 ^ d4, 14);
+            long b05 = Long.rotateLeft(a03 ^ d3, 28);
+            long b06 = Long.rotateLeft(a09 ^ d4, 20);
+            long b07 = Long.rotateLeft(a10 ^ d0, 3);
+            long b08 = Long.rotateLeft(a16 ^ d1, 45);
+            long b09 = Long.rotateLeft(a22 ^ d2, 61);
+            long b10 = Long.rotateLeft(a01 ^ d1, 1);
+            long b11 = Long.rotateLeft(a07 ^ d2, 6);
+            long b12 = Long.rotateLeft(a13 ^ d3, 25);
+            long b13 = Long.rotateLeft(a19 ^ d4, 8);
+            long b14 = Long.rotateLeft(a20 ^ d0, 18);
+            long b15 = Long.rotateLeft(a04 ^ d4, 27);
+            long b16 = Long.rotateLeft(a05 ^ d0, 36);
+            long b17 = Long.rotateLeft(a11 ^ d1, 10);
+            long b18 = Long.rotateLeft(a17 ^ d2, 15);
+            long b19 = Long.rotateLeft(a23 ^ d3, 56);
+            long b20 = Long.rotateLeft(a02 ^ d2, 62);
+            long b21 = Long.rotateLeft(a08 ^ d3, 55);
+            long b22 = Long.rotateLeft(a14 ^ d4, 39);
+            long b23 = Long.rotateLeft(a15 ^ d0, 41);
+            long b24 = Long.rotateLeft(a21 ^ d1, 2);
+
+            // chi mapping
+            a00 = b00 ^ (~b01 & b02);
+            a01 = b01 ^ (~b02 & b03);
+            a02 = b02 ^ (~b03 & b04);
+            a03 = b03 ^ (~b04 & b00);
+            a04 = b04 ^ (~b00 & b01);
+            a05 = b05 ^ (~b06 & b07);
+            a06 = b06 ^ (~b07 & b08);
+            a07 = b07 ^ (~b08 & b09);
+            a08 = b08 ^ (~b09 & b05);
+            a09 = b09 ^ (~b05 & b06);
+            a10 = b10 ^ (~b11 & b12);
+            a11 = b11 ^ (~b12 & b13);
+            a12 = b12 ^ (~b13 & b14);
+            a13 = b13 ^ (~b14 & b10);
+            a14 = b14 ^ (~b10 & b11);
+            a15 = b15 ^ (~b16 & b17);
+            a16 = b16 ^ (~b17 & b18);
+            a17 = b17 ^ (~b18 & b19);
+            a18 = b18 ^ (~b19 & b15);
+            a19 = b19 ^ (~b15 & b16);
+            a20 = b20 ^ (~b21 & b22);
+            a21 = b21 ^ (~b22 & b23);
+            a22 = b22 ^ (~b23 & b24);
+            a23 = b23 ^ (~b24 & b20);
+            a24 = b24 ^ (~b20 & b21);
+
+            // iota mapping
+            a00 ^= KECCAKF_RNDC[r];
+        }
+
+        st[0] = a00;
+        st[1] = a01;
+        st[2] = a02;
+        st[3] = a03;
+        st[4] = a04;
+        st[5] = a05;
+        st[6] = a06;
+        st[7] = a07;
+        st[8] = a08;
+        st[9] = a09;
+        st[10] = a10;
+        st[11] = a11;
+        st[12] = a12;
+        st[13] = a13;
+        st[14] = a14;
+        st[15] = a15;
+        st[16] = a16;
+        st[17] = a17;
+        st[18] = a18;
+        st[19] = a19;
+        st[20] = a20;
+        st[21] = a21;
+        st[22] = a22;
+        st[23] = a23;
+        st[24] = a24;
+    }
+
+    /**
+     * keccak compression function applied to KECCAKF_WAYS independent states at
+     * once. Lane i of state j is stored at st[i * KECCAKF_WAYS + j], so every step
+     * runs the same operation over adjacent words, which leaves the JIT free to
+     * keep the states in registers or vectorize across them.
+     * 
+     * @param st the interleaved state lanes
+     * @param b  scratch space of 30 * KECCAKF_WAYS words
+     */
+    static void sha3_keccakf_xn(long[] st, long[] b) {
+        if (Metrics.ENABLED) {
+            Metrics.KECCAK_F.add(KECCAKF_WAYS);
         }
 
+        final int W = KECCAKF_WAYS;
+        final int C = 25 * W;
+
         for (int r = 0; r < KECCAKF_ROUNDS; r++) {
             // theta mapping
-            for (int i = 0; i < 5; i++)
-                planes[i] = lanes[i] ^ lanes[i + 5] ^ lanes[i + 10] ^ lanes[i + 15] ^ lanes[i + 20];
-
-            for (int i = 0; i < 5; i++) {
-                long t = planes[(i + 4) % 5] ^ ROTL64(planes[(i + 1) % 5], 1);
-                for (int j = 0; j < 25; j += 5)
-                    lanes[j + i] ^= t;
+            for (int x = 0; x < 5; x++)
+                for (int j = 0; j < W; j++)
+                    b[C + x * W + j] = st[x * W + j] ^ st[(x + 5) * W + j] ^ st[(x + 10) * W + j]
+                            ^ st[(x + 15) * W + j] ^ st[(x + 20) * W + j];
+
+            for (int x = 0; x < 5; x++) {
+                int prev = C + ((x + 4) % 5) * W, next = C + ((x + 1) % 5) * W;
+                for (int j = 0; j < W; j++) {
+                    long t = b[prev + j] ^ Long.rotateLeft(b[next + j], 1);
+                    for (int y = 0; y < 25; y += 5)
+                        st[(x + y) * W + j] ^= t;
+                }
             }
 
             // rho and pi mapping
-            long t = lanes[1];
-            for (int i = 0; i < 24; i++) {
-                int j = KECCAKF_PILN[i];
-                planes[0] = lanes[j];
-                lanes[j] = ROTL64(t, KECCAKF_ROTC[i]);
-                t = planes[0];
+            for (int i = 0; i < 25; i++) {
+                int src = KECCAKF_PI_SRC[i] * W, rot = KECCAKF_PI_ROT[i];
+                for (int j = 0; j < W; j++)
+                    b[i * W + j] = Long.rotateLeft(st[src + j], rot);
             }
 
             // chi mapping
-            for (int j = 0; j < 25; j += 5) {
-                for (int i = 0; i < 5; i++)
-                    planes[i] = lanes[j + i];
-                for (int i = 0; i < 5; i++)
-                    lanes[j + i] ^= (~planes[(i + 1) % 5]) & planes[(i + 2) % 5];
-            }
+            for (int y = 0; y < 25; y += 5)
+                for (int x = 0; x < 5; x++) {
+                    int i = (y + x) * W, i1 = (y + (x + 1) % 5) * W, i2 = (y + (x + 2) % 5) * W;
+                    for (int j = 0; j < W; j++)
+                        st[i + j] = b[i + j] ^ (~b[i1 + j] & b[i2 + j]);
+                }
 
             // iota mapping
-            lanes[0] ^= KECCAKF_RNDC[r];
+            for (int j = 0; j < W; j++)
+                st[j] ^= KECCAKF_RNDC[r];
+        }
+    }
+
+    /**
+     * XOR a single byte into the state at the given byte position
+     * 
+     * @param pos byte position within the state
+     * @param b   the byte
+     */
+    private void xor_byte(int pos, byte b) {
+        state[pos >>> 3] ^= (b & 0xFFL) << ((pos & 7) << 3);
+    }
+
+    /**
+     * Update state with new data, a whole lane at a time wherever possible
+     * 
+     * @param data new data
+     * @param off  offset of the first byte in data
+     * @param len  length
+     */
+    void sha3_update(byte[] data, int off, int len) {
+        int j = pt;
+
+        // finish a partially filled lane
+        while (len > 0 && (j & 7) != 0) {
+            xor_byte(j++, data[off++]);
+            len--;
+            if (j >= rate) {
+                sha3_keccakf(state);
+                j = 0;
+            }
         }
 
-        // map from longs in 'lanes' to bytes and store in 'state'
-        for (int i = 0, j = 0; i < 25; i++, j += 8) {
-            long t = lanes[i];
-            for (int k = 0; k < Byte.SIZE; k++) {
-                state[j + k] = (byte) ((t >> k * Byte.SIZE) & 0xFF);
+        // whole rate blocks
+        if (j == 0) {
+            int lanes = rate >>> 3;
+            while (len >= rate) {
+                Xor.xorLanes(state, data, off, lanes);
+                sha3_keccakf(state);
+                off += rate;
+                len -= rate;
             }
         }
+
+        // remaining whole lanes
+        while (len >= 8) {
+            state[j >>> 3] ^= (long) LANE.get(data, off);
+            j += 8;
+            off += 8;
+            len -= 8;
+            if (j >= rate) {
+                sha3_keccakf(state);
+                j = 0;
+            }
+        }
+
+        // trailing bytes
+        while (len > 0) {
+            xor_byte(j++, data[off++]);
+            len--;
+        }
+        pt = j;
     }
 
     /**
-     * Update state with new data
+     * Update state with the remaining bytes of a buffer, a whole lane at a time
+     * wherever possible. The buffer's position is advanced to its limit.
      * 
      * @param data new data
-     * @param len  length
      */
-    private void sha3_update(byte[] data, int len) {
+    void sha3_update(ByteBuffer data) {
+        if (data.hasArray()) {
+            sha3_update(data.array(), data.arrayOffset() + data.position(), data.remaining());
+            data.position(data.limit());
+            return;
+        }
+
+        ByteOrder order = data.order();
+        data.order(ByteOrder.LITTLE_ENDIAN);
         int j = pt;
-        for (int i = 0; i < len; i++) {
-            state[j++] ^= data[i];
+        while (data.hasRemaining() && (j & 7) != 0) {
+            xor_byte(j++, data.get());
+            if (j >= rate) {
+                sha3_keccakf(state);
+                j = 0;
+            }
+        }
+        while (data.remaining() >= 8) {
+            state[j >>> 3] ^= data.getLong();
+            j += 8;
             if (j >= rate) {
                 sha3_keccakf(state);
                 j = 0;
             }
         }
+        while (data.hasRemaining())
+            xor_byte(j++, data.get());
         pt = j;
+        data.order(order);
+    }
+
+    /**
+     * Copy the current lanes, e.g. to restore the sponge to a known point later
+     * 
+     * @return a copy of the state lanes
+     */
+    long[] copy_state() {
+        return state.clone();
+    }
+
+    /**
+     * Overwrite the state with previously copied lanes and rewind to the start of
+     * a block
+     * 
+     * @param lanes the lanes to restore
+     */
+    void load_state(long[] lanes) {
+        System.arraycopy(lanes, 0, state, 0, state.length);
+        pt = 0;
     }
 
     /**
-     * Extensible Output Function
+     * Extensible Output Function with the given domain separation bits
+     * 
+     * @param domain 0x04 for cSHAKE, 0x1F for plain SHAKE
      */
-    private void shake_xof() {
-        // original = 0x1F
-        state[pt] ^= 0x04;
-        state[rate - 1] ^= 0x80;
+    void shake_xof(byte domain) {
+        xor_byte(pt, domain);
+        xor_byte(rate - 1, (byte) 0x80);
         sha3_keccakf(state);
         pt = 0;
     }
 
     /**
-     * Extensible Output Function
+     * Extensible Output Function, squeezing whole lanes wherever possible
+     * 
+     * @param out output buffer
+     * @param off offset of the first output byte
+     * @param len number of bytes to squeeze
      */
-    private void shake_out(byte[] out, int len) {
+    void shake_out(byte[] out, int off, int len) {
         int j = pt;
-        for (int i = 0; i < len; i++) {
+        while (len > 0) {
             if (j >= rate) {
                 sha3_keccakf(state);
                 j = 0;
             }
-            out[i] = state[j++];
+            if ((j & 7) == 0 && len >= 8) {
+                LANE.set(out, off, state[j >>> 3]);
+                j += 8;
+                off += 8;
+                len -= 8;
+            } else {
+                out[off++] = (byte) (state[j >>> 3] >>> ((j & 7) << 3));
+                j++;
+                len--;
+            }
         }
         pt = j;
     }
 
-    /**
-     * Rotate 64-bit value to the left
-     * 
-     * @param x the 64-bit value to be shifted
-     * @param y the value of positions to be shifted
-     * @return x rotated to the left by y
-     */
-    private long ROTL64(long x, int y) {
-        return (((x) << (y)) | ((x) >>> (64 - (y))));
-    }
-
     /**
      * Encode Left
      * 
      * @param x the int value to be left encoded
      * @return the left encoded value, x
      */
-    private static byte[] left_encode(int x) {
-        int n = 1;
-        while (1 << 8 * n <= x)
-            n++;
+    static byte[] left_encode(int x) {
+        int n = encoded_length(x);
 
         byte[] bytes = new byte[n + 1];
         for (int i = bytes.length - 1; i > 0; i--) {
@@ -195,18 +430,16 @@ public class KECCAK {
     /**
      * Encode Right
      * 
-     * @param x the int value to be right encoded
+     * @param x the non-negative value to be right encoded
      * @return the right encoded value, x
      */
-    private static byte[] right_encode(int x) {
-        int n = 1;
-        while (1 << 8 * n <= x)
-            n++;
+    static byte[] right_encode(long x) {
+        int n = encoded_length(x);
 
         byte[] bytes = new byte[n + 1];
         for (int i = bytes.length - 2; i >= 0; i--) {
             bytes[i] = (byte) x;
-            x = x >> 8;
+            x = x >>> 8;
         }
 
         bytes[bytes.length - 1] = (byte) n;
@@ -214,13 +447,26 @@ public class KECCAK {
         return bytes;
     }
 
+    /**
+     * Number of bytes left_encode/right_encode use for the value itself
+     * 
+     * @param x the non-negative value to be encoded
+     * @return the smallest n >= 1 with x < 2^(8n)
+     */
+    private static int encoded_length(long x) {
+        int n = 1;
+        while (n < Long.BYTES && (x >>> 8 * n) != 0)
+            n++;
+        return n;
+    }
+
     /**
      * Encode string
      * 
      * @param s the string to be encoded
      * @return the encoded string, s
      */
-    private static byte[] encode_string(byte[] s) {
+    static byte[] encode_string(byte[] s) {
         byte[] encoded = left_encode(s.length * 8);
         byte[] bytes = concat_arrays(encoded, s);
 
@@ -234,19 +480,77 @@ public class KECCAK {
      * @param w factor to encode by
      * @return the bytepadded byte array, x
      */
-    private static byte[] bytepad(byte[] x, int w) {
+    static byte[] bytepad(byte[] x, int w) {
         byte[] encoded = left_encode(w);
-        byte[] z = concat_arrays(encoded, x);
 
         // no need for step 2 due to byte-oriented implementation
 
-        while (z.length % w != 0) {
-            z = concat_byte(z, (byte) 0);
-        }
+        int len = encoded.length + x.length;
+        byte[] z = new byte[(len + w - 1) / w * w];
+        System.arraycopy(encoded, 0, z, 0, encoded.length);
+        System.arraycopy(x, 0, z, encoded.length, x.length);
 
         return z;
     }
 
+    /**
+     * Absorb a single byte
+     * 
+     * @param b the byte
+     */
+    private void absorb_byte(byte b) {
+        xor_byte(pt++, b);
+        if (pt >= rate) {
+            sha3_keccakf(state);
+            pt = 0;
+        }
+    }
+
+    /**
+     * Absorb left_encode(x) without building the encoding
+     * 
+     * @param x the non-negative value to be left encoded
+     */
+    private void absorb_left_encode(long x) {
+        int n = encoded_length(x);
+        absorb_byte((byte) n);
+        for (int i = n - 1; i >= 0; i--)
+            absorb_byte((byte) (x >>> 8 * i));
+    }
+
+    /**
+     * Absorb right_encode(x) without building the encoding
+     * 
+     * @param x the non-negative value to be right encoded
+     */
+    private void absorb_right_encode(long x) {
+        int n = encoded_length(x);
+        for (int i = n - 1; i >= 0; i--)
+            absorb_byte((byte) (x >>> 8 * i));
+        absorb_byte((byte) n);
+    }
+
+    /**
+     * Absorb encode_string(s) without building the encoding
+     * 
+     * @param s the string to be encoded
+     */
+    private void absorb_encode_string(byte[] s) {
+        absorb_left_encode((long) s.length * 8);
+        sha3_update(s, 0, s.length);
+    }
+
+    /**
+     * Absorb the zeros that bytepad(..., rate) appends, which only means
+     * finishing the current block
+     */
+    private void absorb_zero_pad() {
+        if (pt != 0) {
+            sha3_keccakf(state);
+            pt = 0;
+        }
+    }
+
     /**
      * Concatenate given byte arrays
      * 
@@ -295,6 +599,20 @@ public class KECCAK {
         return sb.toString();
     }
 
+    /**
+     * Compute KMACXOF256 of many messages under the same key and customization
+     * string, running several sponges through one interleaved permutation
+     * 
+     * @param K        MAC key
+     * @param messages inputs to be encrypted
+     * @param L        output length (bits)
+     * @param S        custom string
+     * @return the MAC tags, in the order of messages
+     */
+    public static List<byte[]> kmacxof256Batch(byte[] K, List<byte[]> messages, int L, byte[] S) {
+        return KeccakBatch.kmacxof256(K, messages, L, S);
+    }
+
     /**
      * hash input using cSHAKE256
      * 
@@ -305,19 +623,49 @@ public class KECCAK {
      * @return the hashed string
      */
     public static byte[] CSHAKE256(byte[] X, int L, byte[] N, byte[] S) {
-        byte[] bytes = new byte[L / 8];
-        KECCAK k = new KECCAK();
-
-        k.shake256_init();
+        return new Cshake256(N, S).update(X).squeeze(L / 8);
+    }
 
-        // KECCAK[512](bytepad(encode_string(N) || encode_string(S), 136) || X || 00, L)
-        byte[] arg = concat_arrays(bytepad(concat_arrays(encode_string(N), encode_string(S)), 136), X);
-        k.sha3_update(arg, arg.length);
+    /**
+     * Encrypt input using KMACXOF256 into a caller-supplied buffer. The sponge is
+     * reused per thread, and so is the state after the (N, S) prefix while S
+     * stays the same, so repeated calls allocate nothing. When S changes the
+     * state comes from PrefixCache, like every other cSHAKE256 prefix.
+     * 
+     * @param K      MAC key
+     * @param X      buffer holding the input to be encrypted
+     * @param off    offset of the input in X
+     * @param len    length of the input (bytes)
+     * @param S      custom string
+     * @param out    buffer receiving the MAC tag
+     * @param outOff offset of the tag in out
+     * @param outLen output length (bytes)
+     */
+    public static void kmacxof256(byte[] K, byte[] X, int off, int len, byte[] S, byte[] out, int outOff,
+            int outLen) {
+        if (off < 0 || len < 0 || off > X.length - len || outOff < 0 || outLen < 0
+                || outOff > out.length - outLen)
+            throw new IndexOutOfBoundsException();
+
+        HotPath h = HOT_PATH.get();
+        KECCAK k = h.sponge;
+        if (h.S == null || !Arrays.equals(h.S, S)) {
+            // bytepad(encode_string("KMAC") || encode_string(S), 136)
+            byte[] prefix = bytepad(concat_arrays(encode_string(KMAC_N), encode_string(S)), 136);
+            System.arraycopy(PrefixCache.lanes(prefix, false), 0, h.prefix, 0, h.prefix.length);
+            h.S = S.clone();
+        }
+        k.load_state(h.prefix);
 
-        k.shake_xof();
-        k.shake_out(bytes, bytes.length);
+        // bytepad(encode_string(K), 136) || X || right_encode(0)
+        k.absorb_left_encode(k.rate);
+        k.absorb_encode_string(K);
+        k.absorb_zero_pad();
+        k.sha3_update(X, off, len);
+        k.absorb_right_encode(0);
 
-        return bytes;
+        k.shake_xof((byte) 0x04);
+        k.shake_out(out, outOff, outLen);
     }
 
     /**
@@ -330,8 +678,9 @@ public class KECCAK {
      * @return the MAC tag
      */
     public static byte[] KMACXOF256(byte[] K, byte[] X, int L, byte[] S) {
-        byte[] new_x = concat_arrays(concat_arrays(bytepad(encode_string(K), 136), X), right_encode(0));
-        return CSHAKE256(new_x, L, "KMAC".getBytes(), S);
+        byte[] bytes = new byte[L / 8];
+        kmacxof256(K, X, 0, X.length, S, bytes, 0, bytes.length);
+        return bytes;
     }
 
     /**
@@ -344,7 +693,23 @@ public class KECCAK {
      * @return the MAC tag
      */
     public static byte[] KMAC256(byte[] K, byte[] X, int L, byte[] S) {
-        byte[] new_x = concat_arrays(concat_arrays(bytepad(encode_string(K), 136), X), right_encode(L));
-        return CSHAKE256(new_x, L, "KMAC".getBytes(), S);
+        Kmac256 k = new Kmac256(K, S);
+        k.update(X);
+        k.finish(L);
+        return k.squeeze(L / 8);
+    }
+
+    /**
+     * Per-thread sponge used by kmacxof256, with a copy of the PrefixCache entry
+     * for the last S so the common case skips the shared cache and its lock
+     */
+    private static class HotPath {
+        final KECCAK sponge = new KECCAK();
+        final long[] prefix = new long[25];
+        byte[] S;
+
+        HotPath() {
+            sponge.shake256_init();
+        }
     }
 }
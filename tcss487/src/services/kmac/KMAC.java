@@ -2,10 +2,17 @@ package services.kmac;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 
+import services.BatchPipeline;
 import services.IService;
+import services.events.HashEvent;
+import services.metrics.Metrics;
 
 public class KMAC implements IService {
     public static final int KMACXOF256_LENGTH = 512;
@@ -13,13 +20,17 @@ public class KMAC implements IService {
     private static final String name = "kmac";
     private static final String service = "Compute cryptographic hash";
 
-    public void parse(String[] input) {
+    public boolean parse(String[] input) {
         if (input.length == 2) {
-            defaultLocation(input);
+            return defaultLocation(input);
+        } else if (input.length == 3 && input[1].equals("-p")) {
+            return parallel(input[2]);
+        } else if (input.length >= 3 && input[1].equals("-r")) {
+            return recursive(input);
         } else {
             // invalid
             help();
-            return;
+            return false;
         }
     }
 
@@ -27,15 +38,78 @@ public class KMAC implements IService {
         execute(messageLocation, outputLocation);
     }
 
-    private void defaultLocation(String[] args) {
+    private boolean defaultLocation(String[] args) {
         try {
             String src = args[1];
             String dest = getDefaultDestination(args[1], "plainhash");
-            execute(src, dest);
+            return execute(src, dest);
         } catch (Exception e) {
             help();
+            return false;
         }
+    }
+
+    private boolean parallel(String src) {
+        try {
+            String dest = getDefaultDestination(src, "parallelhash");
+            long start = System.nanoTime();
+            long size;
+            byte[] output;
+            try (FileChannel in = FileChannel.open(new File(src).toPath(), StandardOpenOption.READ)) {
+                size = in.size();
+                output = ParallelHash256.hashXOF(in, ParallelHash256.DEFAULT_BLOCK_SIZE, KMACXOF256_LENGTH,
+                        "D".getBytes());
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
 
+            write(new File(dest), output);
+            System.out.println(
+                    "\nSuccesfully Hashed Message to \"" + dest + "\"\n" + "Using ParallelHashXOF256 encryption");
+            System.out.printf("%d bytes in %.3f s (%.1f MB/s)\n", size, seconds, size / 1e6 / seconds);
+            return true;
+        } catch (NoSuchFileException e) {
+            System.out.print("\ninvalid file\n");
+        } catch (Exception e) {
+            help();
+        }
+        return false;
+    }
+
+    private boolean recursive(String[] input) {
+        try {
+            String[] args = BatchPipeline.withoutParallelism(input);
+            if (args.length != 3) {
+                help();
+                return false;
+            }
+            return new BatchPipeline(BatchPipeline.parallelism(input)).run(Path.of(args[2]),
+                    BatchPipeline.notOutput("plainhash"), src -> {
+                        byte[] output;
+                        try (FileChannel in = FileChannel.open(src, StandardOpenOption.READ)) {
+                            output = hashKMACXOF256(in);
+                        }
+                        write(new File(getDefaultDestination(src.toString(), "plainhash")), output);
+                    });
+        } catch (IOException | IllegalArgumentException e) {
+            help();
+            return false;
+        }
+    }
+
+    @Override
+    public boolean isStream(String[] input) {
+        return input.length > 1 && input[1].equals("-");
+    }
+
+    @Override
+    public boolean parseStream(String[] input, ReadableByteChannel in, WritableByteChannel out) throws IOException {
+        // kmac -
+        if (input.length != 2) {
+            System.err.println("usage: kmac -");
+            return false;
+        }
+        write(out, hashKMACXOF256(in));
+        return true;
     }
 
     public String getDescription() {
@@ -53,13 +127,25 @@ public class KMAC implements IService {
         StringBuilder sb = new StringBuilder();
         // Header
         sb.append(commandColor + "\n" + name + mainColor + " - " + service + "\n\n" + separator + CYAN
-                + " usage: kmac [file-path]" + "\n\n");
+                + " usage: kmac ['-p' -> parallel || '-r' -> recursive] [file-path] ['-j' threads]" + "\n\n");
         // Example 1
         sb.append(
                 mainColor
                         + separator + RED + " Example:\n" + reset + separator
                         + " kmac C:/Users/Benjamin/Documents/message.txt\n\n" + separator
-                        + " the file is automatically encrypted in the same root folder as the message with the name \"[message_name]-plainhash.txt\"\n");
+                        + " the file is automatically encrypted in the same root folder as the message with the name \"[message_name]-plainhash.txt\"\n\n");
+        // Example 2
+        sb.append(
+                mainColor
+                        + separator + RED + " Example [Parallel]:\n" + reset + separator
+                        + " kmac -p C:/Users/Benjamin/Documents/message.txt\n\n" + separator
+                        + " hashes the file with ParallelHashXOF256, leaves hashed in parallel, as \"[message_name]-parallelhash.txt\"\n\n");
+        // Example 3
+        sb.append(
+                mainColor
+                        + separator + RED + " Example [Recursive]:\n" + reset + separator
+                        + " kmac -r C:/Users/Benjamin/Documents -j 8\n\n" + separator
+                        + " hashes every file below the directory on 8 threads, each to its own \"[name]-plainhash.txt\"\n");
         // Reset Console Color
         sb.append(reset);
         System.out.println(sb.toString());
@@ -71,27 +157,75 @@ public class KMAC implements IService {
      * @param M byte array of message to hash
      * @return plain cryptographic hash of the given byte array M
      */
-    private byte[] hashKMACXOF256(byte[] M) {
-        return KECCAK.KMACXOF256("".getBytes(), M, KMACXOF256_LENGTH, "D".getBytes());
+    public byte[] hashKMACXOF256(byte[] M) {
+        long start = Metrics.ENABLED ? System.nanoTime() : 0;
+        HashEvent event = new HashEvent();
+        event.begin();
+        byte[] hash = KECCAK.KMACXOF256("".getBytes(), M, KMACXOF256_LENGTH, "D".getBytes());
+        if (Metrics.ENABLED) {
+            Metrics.KMAC_HASH.record(start, M.length, hash.length);
+        }
+        commit(event, M.length, hash.length);
+        return hash;
+    }
+
+    /**
+     * Computes the same hash as hashKMACXOF256(byte[]) over everything left in
+     * the given channel, streaming it in fixed-size chunks
+     * 
+     * @param in channel holding the message to hash
+     * @return plain cryptographic hash of the message read from the channel
+     * @throws IOException if reading the channel fails
+     */
+    public byte[] hashKMACXOF256(ReadableByteChannel in) throws IOException {
+        long start = Metrics.ENABLED ? System.nanoTime() : 0;
+        HashEvent event = new HashEvent();
+        event.begin();
+        Kmac256 k = new Kmac256("".getBytes(), "D".getBytes());
+        long n = k.updateFrom(in);
+        byte[] hash = k.squeeze(KMACXOF256_LENGTH / 8);
+        if (Metrics.ENABLED) {
+            Metrics.KMAC_HASH.record(start, n, hash.length);
+        }
+        commit(event, n, hash.length);
+        return hash;
+    }
+
+    private static void commit(HashEvent event, long bytes, int outputLength) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.bytes = bytes;
+            event.outputLength = outputLength;
+            event.customization = "D";
+            event.commit();
+        }
     }
 
-    private void execute(String messageLocation, String encryptionLocation) {
+    private boolean execute(String messageLocation, String encryptionLocation) {
         try {
             File loc = new File(messageLocation);
             File dest = new File(encryptionLocation);
 
-            byte[] message = Files.readAllBytes(loc.toPath());
-            byte[] output = hashKMACXOF256(message);
+            long start = System.nanoTime();
+            long size;
+            byte[] output;
+            try (FileChannel in = FileChannel.open(loc.toPath(), StandardOpenOption.READ)) {
+                size = in.size();
+                output = hashKMACXOF256(in);
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
 
             write(dest, output);
             System.out.println(
                     "\nSuccesfully Hashed Message to \"" + encryptionLocation + "\"\n" + "Using KMACXOF256 encryption");
+            System.out.printf("%d bytes in %.3f s (%.1f MB/s)\n", size, seconds, size / 1e6 / seconds);
+            return true;
         } catch (NoSuchFileException e) {
             System.out.print("\ninvalid file\n");
         } catch (IOException e) {
             e.printStackTrace();
             System.out.print("\ninvalid command\n");
-            return;
         }
+        return false;
     }
 }
@@ -0,0 +1,125 @@
+package services.kmac;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * KMACXOF256 over many short messages under one key. The keyed prefix is
+ * absorbed once, and messages that pad to the same number of blocks are run
+ * KECCAK.KECCAKF_WAYS at a time through the interleaved permutation. The
+ * messages of a smaller group go through the scalar permutation one by one, so
+ * no empty sponges are permuted.
+ */
+class KeccakBatch {
+
+    private static final VarHandle LANE = MethodHandles.byteArrayViewVarHandle(long[].class,
+            ByteOrder.LITTLE_ENDIAN);
+
+    private static final int RATE = 136;
+    private static final int RATE_LANES = RATE / 8;
+
+    private KeccakBatch() {
+    };
+
+    static List<byte[]> kmacxof256(byte[] K, List<byte[]> messages, int L, byte[] S) {
+        final int W = KECCAK.KECCAKF_WAYS;
+        int n = messages.size();
+        int outLen = L / 8;
+
+        // state after bytepad(encode_string("KMAC") || encode_string(S)) || bytepad(encode_string(K))
+        long[] prefix = new Kmac256(K, S).prefix_state();
+
+        // message || right_encode(0) || 10*1 padding, as whole rate blocks
+        byte[][] padded = new byte[n][];
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            byte[] m = messages.get(i);
+            int len = m.length + 2;
+            byte[] p = Arrays.copyOf(m, (len / RATE + 1) * RATE);
+            p[m.length + 1] = 1;
+            p[len] ^= 0x04;
+            p[p.length - 1] ^= (byte) 0x80;
+            padded[i] = p;
+            order[i] = i;
+        }
+
+        // group messages of equal block count so a group absorbs in lockstep
+        Arrays.sort(order, (a, b) -> Integer.compare(padded[a].length, padded[b].length));
+
+        byte[][] out = new byte[n][outLen];
+        long[] st = new long[25 * W];
+        long[] scratch = new long[30 * W];
+        int[] group = new int[W];
+        for (int start = 0; start < n;) {
+            int blocks = padded[order[start]].length / RATE;
+            int count = 0;
+            while (count < W && start + count < n && padded[order[start + count]].length / RATE == blocks) {
+                group[count] = order[start + count];
+                count++;
+            }
+            start += count;
+
+            if (count < W) {
+                for (int j = 0; j < count; j++)
+                    kmacxof256(prefix, padded[group[j]], out[group[j]]);
+                continue;
+            }
+
+            for (int i = 0; i < 25; i++)
+                for (int j = 0; j < W; j++)
+                    st[i * W + j] = prefix[i];
+
+            // absorb
+            for (int blk = 0; blk < blocks; blk++) {
+                int off = blk * RATE;
+                for (int j = 0; j < count; j++) {
+                    byte[] p = padded[group[j]];
+                    for (int i = 0; i < RATE_LANES; i++)
+                        st[i * W + j] ^= (long) LANE.get(p, off + 8 * i);
+                }
+                KECCAK.sha3_keccakf_xn(st, scratch);
+            }
+
+            // squeeze
+            for (int off = 0; off < outLen; off += RATE) {
+                if (off > 0)
+                    KECCAK.sha3_keccakf_xn(st, scratch);
+                int len = Math.min(RATE, outLen - off);
+                for (int j = 0; j < count; j++) {
+                    byte[] o = out[group[j]];
+                    for (int k = 0; k < len; k++)
+                        o[off + k] = (byte) (st[(k >>> 3) * W + j] >>> ((k & 7) << 3));
+                }
+            }
+        }
+
+        List<byte[]> tags = new ArrayList<>(n);
+        Collections.addAll(tags, out);
+        return tags;
+    }
+
+    /**
+     * Absorb one padded message into a copy of the prefix state and squeeze out,
+     * with the scalar permutation
+     */
+    private static void kmacxof256(long[] prefix, byte[] padded, byte[] out) {
+        long[] st = prefix.clone();
+        for (int off = 0; off < padded.length; off += RATE) {
+            for (int i = 0; i < RATE_LANES; i++)
+                st[i] ^= (long) LANE.get(padded, off + 8 * i);
+            KECCAK.sha3_keccakf(st);
+        }
+        for (int off = 0; off < out.length; off += RATE) {
+            if (off > 0)
+                KECCAK.sha3_keccakf(st);
+            int len = Math.min(RATE, out.length - off);
+            for (int k = 0; k < len; k++)
+                out[off + k] = (byte) (st[k >>> 3] >>> ((k & 7) << 3));
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package services.kmac;
+
+/**
+ * Incremental KMAC256 / KMACXOF256. The key is absorbed once on construction,
+ * the message in chunks through update(), and the tag is squeezed afterwards.
+ */
+public class Kmac256 extends Cshake256 {
+
+    private static final byte[] KMAC_N = "KMAC".getBytes();
+
+    /**
+     * Initialize a KMAC256 sponge under the given key and customization string
+     * 
+     * @param K MAC key
+     * @param S customization string
+     */
+    public Kmac256(byte[] K, byte[] S) {
+        this(K, S, false);
+    }
+
+    /**
+     * Initialize a KMAC256 sponge, optionally caching the state after the key so
+     * later hashers under the same key and customization string skip absorbing
+     * it. The cache holds on to the key, so only set cacheKey for long-lived keys
+     * that are used over and over.
+     * 
+     * @param K        MAC key
+     * @param S        customization string
+     * @param cacheKey whether to cache the keyed state
+     */
+    public Kmac256(byte[] K, byte[] S, boolean cacheKey) {
+        super(KMAC_N, S, KECCAK.bytepad(KECCAK.encode_string(K), 136), cacheKey);
+    }
+
+    /**
+     * Finish as KMACXOF256, whose output may be squeezed to any length. Called
+     * implicitly by the first squeeze.
+     */
+    @Override
+    public void finish() {
+        absorb(KECCAK.right_encode(0));
+        super.finish();
+    }
+
+    /**
+     * Finish as KMAC256 with a fixed output length, which is bound into the tag
+     * 
+     * @param L output length (bits)
+     */
+    public void finish(int L) {
+        absorb(KECCAK.right_encode(L));
+        super.finish();
+    }
+}
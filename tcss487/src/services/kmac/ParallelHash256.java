@@ -0,0 +1,204 @@
+package services.kmac;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * ParallelHash256 / ParallelHashXOF256 (NIST SP 800-185) on top of the Keccak
+ * core. The input is split into B-byte leaves that are hashed independently on a
+ * ForkJoinPool, and the 512-bit chaining values are combined in order by a final
+ * cSHAKE256 (or, for the keyed variant, KMACXOF256) sponge.
+ */
+public class ParallelHash256 {
+
+    public static final int DEFAULT_BLOCK_SIZE = 8192;
+
+    private static final byte[] PARALLEL_HASH_N = "ParallelHash".getBytes();
+
+    // chaining value length (bytes)
+    private static final int CV_LENGTH = 64;
+
+    // leaves hashed sequentially by one task before it stops splitting
+    private static final int LEAVES_PER_TASK = 8;
+
+    // leaves mapped from a file at a time, bounds the memory used for chaining values
+    private static final int LEAVES_PER_WINDOW = 4096;
+
+    private ParallelHash256() {
+    };
+
+    /**
+     * hash input using ParallelHash256
+     *
+     * @param X input to be hashed
+     * @param B leaf size (bytes)
+     * @param L output length (bits)
+     * @param S custom string
+     * @return the hashed string
+     */
+    public static byte[] hash(byte[] X, int B, int L, byte[] S) {
+        Cshake256 node = new Cshake256(PARALLEL_HASH_N, S);
+        long n = absorbLeaves(ByteBuffer.wrap(X), B, node);
+        return finish(node, n, L, L);
+    }
+
+    /**
+     * hash input using ParallelHashXOF256
+     *
+     * @param X input to be hashed
+     * @param B leaf size (bytes)
+     * @param L output length (bits)
+     * @param S custom string
+     * @return the hashed string
+     */
+    public static byte[] hashXOF(byte[] X, int B, int L, byte[] S) {
+        Cshake256 node = new Cshake256(PARALLEL_HASH_N, S);
+        long n = absorbLeaves(ByteBuffer.wrap(X), B, node);
+        return finish(node, n, 0, L);
+    }
+
+    /**
+     * hash a file using ParallelHashXOF256, mapping it a window at a time
+     *
+     * @param in file to be hashed
+     * @param B  leaf size (bytes)
+     * @param L  output length (bits)
+     * @param S  custom string
+     * @return the hashed string
+     * @throws IOException if the file cannot be mapped
+     */
+    public static byte[] hashXOF(FileChannel in, int B, int L, byte[] S) throws IOException {
+        Cshake256 node = new Cshake256(PARALLEL_HASH_N, S);
+        long n = absorbLeaves(in, B, node);
+        return finish(node, n, 0, L);
+    }
+
+    /**
+     * Keyed ParallelHashXOF256: the leaves are hashed as usual and the encoded
+     * chaining values are compressed with KMACXOF256 under K instead of
+     * cSHAKE256("ParallelHash")
+     *
+     * @param K  MAC key
+     * @param in file to be authenticated
+     * @param B  leaf size (bytes)
+     * @param L  output length (bits)
+     * @param S  custom string
+     * @return the MAC tag
+     * @throws IOException if the file cannot be mapped
+     */
+    public static byte[] kmacXOF(byte[] K, FileChannel in, int B, int L, byte[] S) throws IOException {
+        Kmac256 node = new Kmac256(K, S);
+        long n = absorbLeaves(in, B, node);
+        return finish(node, n, 0, L);
+    }
+
+    /**
+     * Absorb left_encode(B) and the chaining values of every leaf of a file
+     *
+     * @return number of leaves
+     */
+    private static long absorbLeaves(FileChannel in, int B, Cshake256 node) throws IOException {
+        node.absorb(KECCAK.left_encode(B));
+
+        long size = in.size();
+        int leaves = windowLeaves(B);
+        long window = (long) B * leaves;
+        long n = 0;
+        byte[] cvs = new byte[leaves * CV_LENGTH];
+        for (long pos = 0; pos < size; pos += window) {
+            ByteBuffer data = in.map(FileChannel.MapMode.READ_ONLY, pos, Math.min(window, size - pos));
+            n += hashLeaves(data, B, cvs, node);
+        }
+        return n;
+    }
+
+    /**
+     * Absorb left_encode(B) and the chaining values of every leaf of a buffer
+     *
+     * @return number of leaves
+     */
+    private static long absorbLeaves(ByteBuffer data, int B, Cshake256 node) {
+        node.absorb(KECCAK.left_encode(B));
+
+        long n = 0;
+        int leaves = windowLeaves(B);
+        int window = B * leaves;
+        byte[] cvs = new byte[leaves * CV_LENGTH];
+        // long, as pos + window may not fit in an int on the last window
+        for (long pos = 0; pos < data.limit(); pos += window)
+            n += hashLeaves(data.slice((int) pos, (int) Math.min(window, data.limit() - pos)), B, cvs, node);
+        return n;
+    }
+
+    /**
+     * Number of leaves per window, keeping a window addressable by an int
+     */
+    private static int windowLeaves(int B) {
+        if (B <= 0)
+            throw new IllegalArgumentException("leaf size must be positive");
+        return Math.min(LEAVES_PER_WINDOW, Integer.MAX_VALUE / B);
+    }
+
+    /**
+     * Hash the leaves of one window in parallel and absorb their chaining values
+     * in order
+     *
+     * @return number of leaves in the window
+     */
+    private static int hashLeaves(ByteBuffer data, int B, byte[] cvs, Cshake256 node) {
+        int leaves = (data.limit() + B - 1) / B;
+        ForkJoinPool.commonPool().invoke(new LeafTask(data, B, 0, leaves, cvs));
+        node.absorb(cvs, 0, leaves * CV_LENGTH);
+        return leaves;
+    }
+
+    /**
+     * Absorb right_encode(n) || right_encode(encodedL) and squeeze L bits
+     */
+    private static byte[] finish(Cshake256 node, long n, int encodedL, int L) {
+        node.absorb(KECCAK.right_encode(n));
+        node.absorb(KECCAK.right_encode(encodedL));
+        return node.squeeze(L / 8);
+    }
+
+    /**
+     * Computes cSHAKE256(X_i, 512, "", "") for the leaves [from, to) of a window
+     */
+    private static class LeafTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final ByteBuffer data;
+        private final int B, from, to;
+        private final byte[] cvs;
+
+        LeafTask(ByteBuffer data, int B, int from, int to, byte[] cvs) {
+            this.data = data;
+            this.B = B;
+            this.from = from;
+            this.to = to;
+            this.cvs = cvs;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > LEAVES_PER_TASK) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new LeafTask(data, B, from, mid, cvs), new LeafTask(data, B, mid, to, cvs));
+                return;
+            }
+
+            KECCAK sponge = new KECCAK();
+            for (int i = from; i < to; i++) {
+                int off = i * B;
+                sponge.shake256_init();
+                sponge.sha3_update(data.slice(off, Math.min(B, data.limit() - off)));
+                sponge.shake_xof((byte) 0x1F);
+                sponge.shake_out(cvs, i * CV_LENGTH, CV_LENGTH);
+            }
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package services.kmac;
+
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Least-recently-used cache of sponge states right after a cSHAKE256 prefix.
+ * Every prefix is a whole number of rate blocks, so a cached state is just the
+ * 25 lanes, and a hasher restores them instead of permuting the prefix again.
+ * Function-name/customization prefixes and keyed prefixes are bounded
+ * separately, so a burst of one-off keys cannot evict the handful of (N, S)
+ * pairs the services use.
+ * <p>
+ * KECCAK.kmacxof256 keeps a per-thread copy of the entry for its last
+ * customization string in front of this cache, so its allocation-free path
+ * doesn't build the prefix or take the lock while S stays the same.
+ */
+class PrefixCache {
+
+    private static final int MAX_PREFIXES = 64;
+    private static final int MAX_KEYED_PREFIXES = 256;
+
+    private static final Map<ByteBuffer, long[]> prefixes = new Lru(MAX_PREFIXES);
+    private static final Map<ByteBuffer, long[]> keyedPrefixes = new Lru(MAX_KEYED_PREFIXES);
+
+    private PrefixCache() {
+    };
+
+    /**
+     * Lanes after absorbing the given prefix into an empty sponge. The returned
+     * array is shared and must not be modified.
+     * 
+     * @param prefix the bytepadded prefix
+     * @param keyed  whether the prefix contains a key
+     * @return the state lanes
+     */
+    static long[] lanes(byte[] prefix, boolean keyed) {
+        Map<ByteBuffer, long[]> cache = keyed ? keyedPrefixes : prefixes;
+        ByteBuffer key = ByteBuffer.wrap(prefix);
+
+        long[] lanes;
+        synchronized (cache) {
+            lanes = cache.get(key);
+        }
+        if (lanes != null)
+            return lanes;
+
+        KECCAK sponge = new KECCAK();
+        sponge.shake256_init();
+        sponge.sha3_update(prefix, 0, prefix.length);
+        lanes = sponge.copy_state();
+
+        synchronized (cache) {
+            cache.put(key, lanes);
+        }
+        return lanes;
+    }
+
+    private static class Lru extends LinkedHashMap<ByteBuffer, long[]> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int capacity;
+
+        Lru(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<ByteBuffer, long[]> eldest) {
+            return size() > capacity;
+        }
+    }
+}
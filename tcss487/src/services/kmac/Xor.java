@@ -0,0 +1,85 @@
+package services.kmac;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/**
+ * Bulk XOR for keystreams and rate blocks. When the JVM runs with
+ * --add-modules jdk.incubator.vector and the classes under tcss487/vector are on
+ * the classpath this uses the Vector API, otherwise (or with
+ * -Dtcss487.xor=scalar) it XORs a 64-bit word at a time.
+ */
+public class Xor {
+
+    private static final XorKernel KERNEL = load();
+
+    private Xor() {
+    };
+
+    /**
+     * XOR src into dst
+     * 
+     * @param dst  the bytes to update
+     * @param dOff offset of the first byte to update
+     * @param src  the bytes to XOR in, e.g. keystream
+     * @param sOff offset of the first byte of src
+     * @param len  number of bytes
+     */
+    public static void xor(byte[] dst, int dOff, byte[] src, int sOff, int len) {
+        if (dOff < 0 || sOff < 0 || len < 0 || dOff > dst.length - len || sOff > src.length - len)
+            throw new IndexOutOfBoundsException();
+        KERNEL.xor(dst, dOff, src, sOff, len);
+    }
+
+    /**
+     * XOR whole little-endian lanes of src into the sponge state
+     */
+    static void xorLanes(long[] state, byte[] src, int off, int lanes) {
+        KERNEL.xorLanes(state, src, off, lanes);
+    }
+
+    /**
+     * @return name of the kernel in use, "vector" or "scalar"
+     */
+    public static String kernel() {
+        return KERNEL instanceof Scalar ? "scalar" : "vector";
+    }
+
+    private static XorKernel load() {
+        if (!"scalar".equals(System.getProperty("tcss487.xor"))
+                && ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+            try {
+                XorKernel kernel = (XorKernel) Class.forName("services.kmac.VectorXorKernel")
+                        .getDeclaredConstructor().newInstance();
+                // links every Vector API method the kernel calls, so a kernel built
+                // against another JDK's incubator API fails here and not mid-hash
+                kernel.xor(new byte[64], 0, new byte[64], 0, 64);
+                kernel.xorLanes(new long[25], new byte[200], 0, 25);
+                return kernel;
+            } catch (ReflectiveOperationException | LinkageError e) {
+                // vector classes were not compiled in or do not link, fall back to scalar
+            }
+        }
+        return new Scalar();
+    }
+
+    private static class Scalar implements XorKernel {
+
+        private static final VarHandle LANE = MethodHandles.byteArrayViewVarHandle(long[].class,
+                ByteOrder.LITTLE_ENDIAN);
+
+        public void xor(byte[] dst, int dOff, byte[] src, int sOff, int len) {
+            int i = 0;
+            for (; i <= len - 8; i += 8)
+                LANE.set(dst, dOff + i, (long) LANE.get(dst, dOff + i) ^ (long) LANE.get(src, sOff + i));
+            for (; i < len; i++)
+                dst[dOff + i] ^= src[sOff + i];
+        }
+
+        public void xorLanes(long[] state, byte[] src, int off, int lanes) {
+            for (int i = 0; i < lanes; i++, off += 8)
+                state[i] ^= (long) LANE.get(src, off);
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package services.kmac;
+
+/**
+ * The XOR loops behind absorbing and keystream encryption, implemented either
+ * with plain 64-bit words (Xor) or with SIMD lanes (VectorXorKernel)
+ */
+interface XorKernel {
+
+    /**
+     * dst[dOff..dOff+len) ^= src[sOff..sOff+len)
+     */
+    void xor(byte[] dst, int dOff, byte[] src, int sOff, int len);
+
+    /**
+     * state[0..lanes) ^= the little-endian lanes of src starting at off
+     */
+    void xorLanes(long[] state, byte[] src, int off, int lanes);
+}
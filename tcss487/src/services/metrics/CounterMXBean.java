@@ -0,0 +1,11 @@
+package services.metrics;
+
+/**
+ * JMX view of a counter, registered as services.metrics:type=Counter,name=[name]
+ */
+public interface CounterMXBean {
+
+    long getCount();
+
+    void reset();
+}
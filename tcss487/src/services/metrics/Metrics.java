@@ -0,0 +1,88 @@
+package services.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Counters and latency histograms of the services, switched on with
+ * -Dtcss487.metrics=true. Every recording site is guarded by the static final
+ * ENABLED, so when it is off the JIT drops the guarded code altogether:
+ *
+ * <pre>
+ * long start = Metrics.ENABLED ? System.nanoTime() : 0;
+ * ...
+ * if (Metrics.ENABLED)
+ *     Metrics.KMAC_HASH.record(start, bytesIn, bytesOut);
+ * </pre>
+ *
+ * When enabled, everything is also registered with the platform MBean server
+ * under the services.metrics domain.
+ */
+public final class Metrics {
+
+    public static final boolean ENABLED = Boolean.getBoolean("tcss487.metrics");
+
+    public static final OperationStats KMAC_HASH = new OperationStats("kmac.hash");
+    public static final OperationStats AUTH_TAG = new OperationStats("auth.tag");
+    public static final OperationStats SYMM_ENCRYPT = new OperationStats("symm.encrypt");
+    public static final OperationStats SYMM_DECRYPT = new OperationStats("symm.decrypt");
+    public static final OperationStats EC_ENCRYPT = new OperationStats("ec.encrypt");
+    public static final OperationStats EC_DECRYPT = new OperationStats("ec.decrypt");
+    public static final OperationStats EC_ENCRYPT_MULTI = new OperationStats("ec.encryptMulti");
+    public static final OperationStats EC_DECRYPT_MULTI = new OperationStats("ec.decryptMulti");
+    public static final OperationStats EC_SIGN = new OperationStats("ec.sign");
+    public static final OperationStats EC_VERIFY = new OperationStats("ec.verify");
+
+    // scalar multiplications, by method
+    public static final OperationStats EC_MULTIPLY = new OperationStats("ec.multiply");
+    public static final OperationStats EC_MULTIPLY_CONSTANT_TIME = new OperationStats("ec.multiplyConstantTime");
+    public static final OperationStats EC_MULTIPLY_ADD = new OperationStats("ec.multiplyAdd");
+
+    public static final Counter KECCAK_F = new Counter("keccak.f");
+
+    private static final List<OperationStats> OPERATIONS = List.of(KMAC_HASH, AUTH_TAG, SYMM_ENCRYPT,
+            SYMM_DECRYPT, EC_ENCRYPT, EC_DECRYPT, EC_ENCRYPT_MULTI, EC_DECRYPT_MULTI, EC_SIGN, EC_VERIFY, EC_MULTIPLY,
+            EC_MULTIPLY_CONSTANT_TIME, EC_MULTIPLY_ADD);
+    private static final List<Counter> COUNTERS = List.of(KECCAK_F);
+
+    static {
+        if (ENABLED) {
+            register();
+        }
+    }
+
+    private Metrics() {
+    }
+
+    public static List<OperationStats> operations() {
+        return OPERATIONS;
+    }
+
+    public static List<Counter> counters() {
+        return COUNTERS;
+    }
+
+    public static void reset() {
+        OPERATIONS.forEach(OperationStats::reset);
+        COUNTERS.forEach(Counter::reset);
+    }
+
+    private static void register() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            for (OperationStats op : OPERATIONS) {
+                server.registerMBean(op, new ObjectName("services.metrics:type=Operation,name=" + op.getName()));
+            }
+            for (Counter c : COUNTERS) {
+                server.registerMBean(c, new ObjectName("services.metrics:type=Counter,name=" + c.getName()));
+            }
+        } catch (JMException e) {
+            // still recorded, and shown by the stats command
+            System.err.println("Unable to register metrics MBeans: " + e.getMessage());
+        }
+    }
+}
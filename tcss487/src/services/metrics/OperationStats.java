@@ -0,0 +1,83 @@
+package services.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency histogram and byte counts of one operation. Failed calls, e.g.
+ * decryptions whose tag does not match, are timed like the others and also
+ * counted as failures, without bytes.
+ */
+public final class OperationStats implements OperationStatsMXBean {
+
+    private final String name;
+    private final Histogram latency = new Histogram();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+
+    OperationStats(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @param start    System.nanoTime() when the operation started
+     * @param bytesIn  bytes the operation read
+     * @param bytesOut bytes the operation produced
+     */
+    public void record(long start, long bytesIn, long bytesOut) {
+        latency.record(System.nanoTime() - start);
+        this.bytesIn.add(bytesIn);
+        this.bytesOut.add(bytesOut);
+    }
+
+    /**
+     * @param start System.nanoTime() when the failed operation started
+     */
+    public void recordFailure(long start) {
+        latency.record(System.nanoTime() - start);
+        failures.increment();
+    }
+
+    public long getCount() {
+        return latency.getCount();
+    }
+
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    public long getBytesIn() {
+        return bytesIn.sum();
+    }
+
+    public long getBytesOut() {
+        return bytesOut.sum();
+    }
+
+    public double getMeanNanos() {
+        return latency.getMean();
+    }
+
+    public long getP50Nanos() {
+        return latency.getValueAtQuantile(0.5);
+    }
+
+    public long getP99Nanos() {
+        return latency.getValueAtQuantile(0.99);
+    }
+
+    public long getMaxNanos() {
+        return latency.getMax();
+    }
+
+    public void reset() {
+        latency.reset();
+        bytesIn.reset();
+        bytesOut.reset();
+        failures.reset();
+    }
+}
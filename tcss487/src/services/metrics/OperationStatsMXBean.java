@@ -0,0 +1,26 @@
+package services.metrics;
+
+/**
+ * JMX view of one operation, registered as
+ * services.metrics:type=Operation,name=[operation]
+ */
+public interface OperationStatsMXBean {
+
+    long getCount();
+
+    long getFailures();
+
+    long getBytesIn();
+
+    long getBytesOut();
+
+    double getMeanNanos();
+
+    long getP50Nanos();
+
+    long getP99Nanos();
+
+    long getMaxNanos();
+
+    void reset();
+}
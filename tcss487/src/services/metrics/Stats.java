@@ -0,0 +1,60 @@
+package services.metrics;
+
+import services.IService;
+
+/**
+ * The stats command: print or reset the metrics
+ */
+public class Stats implements IService {
+
+    private static final String name = "stats";
+    private static final String service = "Show operation counts, bytes and latencies";
+
+    public boolean parse(String[] cmds) {
+        if (!Metrics.ENABLED) {
+            System.out.println("\nMetrics are off, start with -Dtcss487.metrics=true to record them\n");
+            return false;
+        }
+        if (cmds.length == 1) {
+            print();
+        } else if (cmds.length == 2 && cmds[1].equals("reset")) {
+            Metrics.reset();
+            System.out.println("\nMetrics reset\n");
+        } else {
+            help();
+            return false;
+        }
+        return true;
+    }
+
+    private void print() {
+        System.out.printf("\n%-26s %9s %9s %12s %12s %11s %11s %11s %11s\n", "operation", "count", "failed",
+                "MB in", "MB out", "mean us", "p50 us", "p99 us", "max us");
+        for (OperationStats op : Metrics.operations()) {
+            if (op.getCount() == 0) {
+                continue;
+            }
+            System.out.printf("%-26s %9d %9d %12.3f %12.3f %11.1f %11.1f %11.1f %11.1f\n", op.getName(),
+                    op.getCount(), op.getFailures(), op.getBytesIn() / 1e6, op.getBytesOut() / 1e6, op.getMeanNanos() / 1e3,
+                    op.getP50Nanos() / 1e3, op.getP99Nanos() / 1e3, op.getMaxNanos() / 1e3);
+        }
+        for (Counter c : Metrics.counters()) {
+            System.out.printf("%-26s %9d\n", c.getName(), c.getCount());
+        }
+        System.out.println();
+    }
+
+    public void help() {
+        final String separator = "      ";
+        final String mainColor = "\033[0;37m";
+        final String CYAN = "\033[0;36m";
+        final String commandColor = "\u001B[33m";
+        final String reset = "\u001B[0m";
+        System.out.println(commandColor + "\n" + name + mainColor + " - " + service + "\n\n" + separator + CYAN
+                + " usage: stats ['reset']" + "\n" + reset);
+    }
+
+    public String getDescription() {
+        return service;
+    }
+}
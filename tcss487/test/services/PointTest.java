@@ -0,0 +1,45 @@
+package services;
+
+import java.math.BigInteger;
+import java.util.Random;
+
+/**
+ * Scalar multiplication: the bit-reversed multiply kept for keys and
+ * cryptograms, and the exact multiplication signatures are computed with.
+ * Exits with a non-zero status on the first failed check.
+ *
+ * usage: java services.PointTest
+ */
+public class PointTest {
+
+    public static void main(String[] args) {
+        Random random = new Random(487);
+        Point G = EllipticCurve.G;
+
+        // multiply is the exact product by the effective scalar, and the exact
+        // product is linear
+        for (int i = 0; i < 8; i++) {
+            BigInteger a = new BigInteger(514, random), b = new BigInteger(514, random);
+            Point P = G.multiply(new BigInteger(64, random));
+            check(G.multiply(a).equals(G.multiplyExact(Point.effective(a))), "multiply(G) = multiplyExact(effective)");
+            check(P.multiply(a).equals(P.multiplyExact(Point.effective(a))), "multiply(P) = multiplyExact(effective)");
+            check(G.multiplyExact(a.add(b)).equals(G.multiplyExact(a).add(G.multiplyExact(b))), "(a + b)G = aG + bG");
+            check(Point.multiplyAddExact(a, G, b, P).equals(G.multiplyExact(a).add(P.multiplyExact(b))),
+                    "multiplyAddExact(a, G, b, P) = aG + bP");
+            check(Point.multiplyAddExact(a, P, b, G).equals(P.multiplyExact(a).add(G.multiplyExact(b))),
+                    "multiplyAddExact(a, P, b, G) = aP + bG");
+            check(Point.multiplyAdd(a, G, b, P).equals(G.multiply(a).add(P.multiply(b))),
+                    "multiplyAdd(a, G, b, P) = multiply(a) + multiply(b)");
+        }
+        check(G.multiplyExact(EllipticCurve.r).equals(Point.neutral), "rG = O");
+        check(G.multiplyExact(BigInteger.ZERO).equals(Point.neutral), "0G = O");
+        System.out.println("PointTest OK");
+    }
+
+    private static void check(boolean ok, String what) {
+        if (!ok) {
+            System.err.println("FAILED: " + what);
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package services;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Signature round trips through the wire format and the batch verifier. Exits
+ * with a non-zero status on the first failed check.
+ *
+ * usage: java services.SignatureTest
+ */
+public class SignatureTest {
+
+    public static void main(String[] args) throws Exception {
+        Random random = new Random(487);
+
+        // sign and verify through the wire format
+        EllipticCurve ec = new EllipticCurve();
+        Path dir = Files.createTempDirectory("signatures");
+        byte[] key = publicKey(ec, "pw".getBytes(), dir.resolve("key"));
+        byte[] other = publicKey(ec, "other".getBytes(), dir.resolve("other"));
+        List<String> valid = new ArrayList<>(), invalid = new ArrayList<>();
+        for (int n : new int[] { 0, 1, 135, 136, 137, 4096 }) {
+            byte[] m = new byte[n];
+            random.nextBytes(m);
+            byte[] sig = ec.sign(m, "pw".getBytes());
+            check(sig[0] == Wire.SIGNATURE_VERSION, "signature version");
+            check(ec.verify(key, m, sig), "signature of " + n + " bytes verifies");
+            check(!ec.verify(other, m, sig), "signature of " + n + " bytes under another key");
+            byte[] tampered = Arrays.copyOf(m, n + 1);
+            check(!ec.verify(key, tampered, sig), "signature of " + n + " bytes on another message");
+
+            Files.write(dir.resolve("m" + n), m);
+            Files.write(dir.resolve("t" + n), tampered);
+            Files.write(dir.resolve("s" + n), sig);
+            valid.add("m" + n + " s" + n + " key");
+            invalid.add("t" + n + " s" + n + " key");
+        }
+
+        // the same signatures through the batch verifier
+        Path manifest = dir.resolve("manifest");
+        Files.write(manifest, valid);
+        check(ec.verifyBatch(manifest.toFile()), "batch of valid signatures");
+        valid.addAll(invalid);
+        Files.write(manifest, valid);
+        check(!ec.verifyBatch(manifest.toFile()), "batch with invalid signatures");
+        System.out.println("SignatureTest OK");
+    }
+
+    private static byte[] publicKey(EllipticCurve ec, byte[] pw, Path file) throws Exception {
+        ec.generateKeyPair(pw, file.toFile());
+        return Files.readAllBytes(file);
+    }
+
+    private static void check(boolean ok, String what) {
+        if (!ok) {
+            System.err.println("FAILED: " + what);
+            System.exit(1);
+        }
+    }
+}
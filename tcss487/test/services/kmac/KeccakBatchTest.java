@@ -0,0 +1,58 @@
+package services.kmac;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * kmacxof256Batch against separate KMACXOF256 calls, for messages of mixed
+ * lengths around the rate boundary, block counts shared by fewer than
+ * KECCAKF_WAYS messages, and outputs longer than one rate block. Exits with a
+ * non-zero status on the first failed check.
+ *
+ * usage: java services.kmac.KeccakBatchTest
+ */
+public class KeccakBatchTest {
+
+    public static void main(String[] args) {
+        Random random = new Random(6);
+        byte[] K = "key".getBytes(), S = "S".getBytes();
+
+        // full groups, a lone message per block count, and 1 to W - 1 leftovers
+        int[] lengths = { 0, 1, 2, 63, 64, 132, 133, 134, 135, 136, 137, 200, 268, 269, 270, 271, 272, 273, 500, 1000 };
+        List<byte[]> messages = new ArrayList<>();
+        for (int copies = 1; copies <= KECCAK.KECCAKF_WAYS + 1; copies++) {
+            for (int i = 0; i < lengths.length; i += copies) {
+                byte[] m = new byte[lengths[i]];
+                random.nextBytes(m);
+                messages.add(m);
+            }
+        }
+
+        for (int L : new int[] { 8, 256, 512, 1088, 1096, 4096 }) {
+            check(messages, K, L, S);
+            check(messages.subList(0, 1), K, L, S);
+            check(messages.subList(0, KECCAK.KECCAKF_WAYS - 1), K, L, S);
+        }
+        check(new ArrayList<>(), K, 512, S);
+        System.out.println("KeccakBatchTest OK");
+    }
+
+    private static void check(List<byte[]> messages, byte[] K, int L, byte[] S) {
+        List<byte[]> tags = KECCAK.kmacxof256Batch(K, messages, L, S);
+        if (tags.size() != messages.size()) {
+            fail(messages.size() + " messages, " + tags.size() + " tags");
+        }
+        for (int i = 0; i < messages.size(); i++) {
+            if (!Arrays.equals(tags.get(i), KECCAK.KMACXOF256(K, messages.get(i), L, S))) {
+                fail("message " + i + " of " + messages.get(i).length + " bytes, L = " + L);
+            }
+        }
+    }
+
+    private static void fail(String what) {
+        System.err.println("FAILED: " + what);
+        System.exit(1);
+    }
+}
@@ -0,0 +1,59 @@
+package services.kmac;
+
+import java.util.Arrays;
+
+/**
+ * ParallelHash256 against the NIST SP 800-185 samples, the encodings it relies
+ * on, and cSHAKE256 with empty N and S. Exits with a non-zero status on the
+ * first failed check.
+ *
+ * usage: java services.kmac.ParallelHashTest
+ */
+public class ParallelHashTest {
+
+    public static void main(String[] args) {
+        byte[] X = new byte[24];
+        for (int i = 0; i < X.length; i++) {
+            X[i] = (byte) (i < 8 ? i : i < 16 ? 0x10 + i - 8 : 0x20 + i - 16);
+        }
+
+        // SP 800-185 ParallelHash256 samples 4 and 5
+        check(hex(ParallelHash256.hash(X, 8, 512, "".getBytes())).equals(
+                "BC1EF124DA34495E948EAD207DD9842235DA432D2BBC54B4C110E64C451105531B7F2A3E0CE055C02805E7C2DE1FB746AF97A1DD01F43B824E31B87612410429"),
+                "sample 4");
+        check(hex(ParallelHash256.hash(X, 8, 512, "Parallel Data".getBytes())).equals(
+                "CDF15289B54F6212B4BC270528B49526006DD9B54E2B6ADD1EF6900DDA3963BB33A72491F236969CA8AFAEA29C682D47A393C065B38E29FAE651A2091C833110"),
+                "sample 5");
+
+        // block counts of 2^31 and more are encoded in full
+        check(Arrays.equals(KECCAK.right_encode(0), new byte[] { 0, 1 }), "right_encode(0)");
+        check(Arrays.equals(KECCAK.right_encode(1L << 31), new byte[] { (byte) 0x80, 0, 0, 0, 4 }),
+                "right_encode(2^31)");
+        check(Arrays.equals(KECCAK.right_encode(1L << 40), new byte[] { 1, 0, 0, 0, 0, 0, 6 }), "right_encode(2^40)");
+
+        // cSHAKE256 with empty N and S keeps the output it always had (the
+        // bytepadded empty prefix and 0x04 padding, not plain SHAKE256)
+        byte[] M = new byte[200];
+        for (int i = 0; i < M.length; i++) {
+            M[i] = (byte) i;
+        }
+        check(hex(KECCAK.CSHAKE256(M, 256, "".getBytes(), "".getBytes()))
+                .equals("6EAFBBFA724F1613A6866EB6A60B7CEBC9DD8C584BC8C69FF70B10BDF58F29E3"), "cSHAKE256 with empty N, S");
+        System.out.println("ParallelHashTest OK");
+    }
+
+    private static String hex(byte[] b) {
+        StringBuilder sb = new StringBuilder();
+        for (byte v : b) {
+            sb.append(String.format("%02X", v));
+        }
+        return sb.toString();
+    }
+
+    private static void check(boolean ok, String what) {
+        if (!ok) {
+            System.err.println("FAILED: " + what);
+            System.exit(1);
+        }
+    }
+}
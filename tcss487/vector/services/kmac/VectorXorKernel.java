@@ -0,0 +1,59 @@
+package services.kmac;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Vector API implementation of the XOR kernel, loaded by Xor when the
+ * jdk.incubator.vector module is enabled. Compile with
+ * --add-modules jdk.incubator.vector.
+ * <p>
+ * Only the array forms of the Vector API are used, which exist in every JDK
+ * since 16. Lanes are loaded as bytes and reinterpreted as longs rather than
+ * with LongVector.fromByteArray, which was removed in JDK 19; the
+ * reinterpretation follows the platform byte order, so big-endian platforms
+ * decode lanes one at a time.
+ */
+class VectorXorKernel implements XorKernel {
+
+    private static final VectorSpecies<Byte> BYTES = ByteVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Long> LONGS = LongVector.SPECIES_PREFERRED;
+
+    // byte vectors of the same size as LONGS
+    private static final VectorSpecies<Byte> LANE_BYTES = VectorSpecies.of(byte.class, LONGS.vectorShape());
+
+    private static final boolean LITTLE_ENDIAN = ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN;
+
+    private static final VarHandle LANE = MethodHandles.byteArrayViewVarHandle(long[].class,
+            ByteOrder.LITTLE_ENDIAN);
+
+    public void xor(byte[] dst, int dOff, byte[] src, int sOff, int len) {
+        int i = 0;
+        for (int bound = BYTES.loopBound(len); i < bound; i += BYTES.length()) {
+            ByteVector a = ByteVector.fromArray(BYTES, dst, dOff + i);
+            ByteVector b = ByteVector.fromArray(BYTES, src, sOff + i);
+            a.lanewise(VectorOperators.XOR, b).intoArray(dst, dOff + i);
+        }
+        for (; i < len; i++)
+            dst[dOff + i] ^= src[sOff + i];
+    }
+
+    public void xorLanes(long[] state, byte[] src, int off, int lanes) {
+        int i = 0;
+        if (LITTLE_ENDIAN) {
+            for (int bound = LONGS.loopBound(lanes); i < bound; i += LONGS.length()) {
+                LongVector s = LongVector.fromArray(LONGS, state, i);
+                LongVector b = ByteVector.fromArray(LANE_BYTES, src, off + 8 * i).reinterpretAsLongs();
+                s.lanewise(VectorOperators.XOR, b).intoArray(state, i);
+            }
+        }
+        for (; i < lanes; i++)
+            state[i] ^= (long) LANE.get(src, off + 8 * i);
+    }
+}